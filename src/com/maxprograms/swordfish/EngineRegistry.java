@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.URISyntaxException;
+import java.sql.SQLException;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.maxprograms.swordfish.tm.ITmEngine;
+
+/**
+ * Open engines shared by all the users of a memory or glossary. Each user
+ * takes a {@link Lease} and closes it when done. An engine without leases is
+ * not closed at once: it stays open until it has been idle for
+ * {@link #IDLE_TIMEOUT} ms, so frequent short uses, like storing confirmed
+ * segments, do not reopen the database every time.
+ */
+public class EngineRegistry {
+
+	private static Logger logger = System.getLogger(EngineRegistry.class.getName());
+
+	public static final long IDLE_TIMEOUT = 5 * 60 * 1000l;
+
+	interface Opener {
+		ITmEngine open() throws IOException, SQLException, URISyntaxException;
+	}
+
+	private static class Entry {
+		String id;
+		ITmEngine engine;
+		int leases;
+		long lastUsed;
+		boolean removed;
+	}
+
+	/**
+	 * Use of an open engine, released when closed.
+	 */
+	public class Lease implements AutoCloseable {
+
+		private Entry entry;
+		private ITmEngine engine;
+		private boolean released;
+
+		Lease(Entry entry) {
+			this.entry = entry;
+			this.engine = entry.engine;
+		}
+
+		public ITmEngine getEngine() {
+			return engine;
+		}
+
+		@Override
+		public void close() {
+			if (!released) {
+				released = true;
+				release(entry);
+			}
+		}
+	}
+
+	private Map<String, Entry> entries;
+	private ScheduledExecutorService evictor;
+
+	public EngineRegistry() {
+		entries = new Hashtable<>();
+		evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "EngineRegistry");
+			t.setDaemon(true);
+			return t;
+		});
+		evictor.scheduleWithFixedDelay(this::evictIdle, IDLE_TIMEOUT / 5, IDLE_TIMEOUT / 5, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns a lease on the engine of {@code id}, calling {@code opener} if the
+	 * engine is not open.
+	 */
+	Lease acquire(String id, Opener opener) throws IOException, SQLException, URISyntaxException {
+		while (true) {
+			Entry entry;
+			synchronized (this) {
+				entry = entries.get(id);
+				if (entry == null) {
+					entry = new Entry();
+					entry.id = id;
+					entries.put(id, entry);
+				}
+				entry.leases++;
+			}
+			// opening can be slow, only users of the same engine wait for it
+			synchronized (entry) {
+				if (entry.removed) {
+					// closed by remove() while waiting
+					continue;
+				}
+				if (entry.engine == null) {
+					try {
+						entry.engine = opener.open();
+					} catch (IOException | SQLException | URISyntaxException | RuntimeException e) {
+						release(entry);
+						throw e;
+					}
+				}
+				return new Lease(entry);
+			}
+		}
+	}
+
+	private synchronized void release(Entry entry) {
+		if (!entry.removed) {
+			entry.leases--;
+			entry.lastUsed = System.currentTimeMillis();
+			if (entry.leases == 0 && entry.engine == null) {
+				// opening failed
+				entry.removed = true;
+				entries.remove(entry.id);
+			}
+		}
+	}
+
+	/**
+	 * Closes the engine of {@code id} even if it is in use, before deleting its
+	 * data.
+	 */
+	public void remove(String id) throws IOException, SQLException, URISyntaxException {
+		Entry entry = entries.get(id);
+		if (entry != null) {
+			synchronized (entry) {
+				if (entry.engine != null) {
+					entry.engine.close();
+					entry.engine = null;
+				}
+				synchronized (this) {
+					entry.removed = true;
+					entries.remove(id);
+				}
+			}
+		}
+	}
+
+	public void closeAll() throws IOException, SQLException, URISyntaxException {
+		List<String> ids;
+		synchronized (this) {
+			ids = new Vector<>(entries.keySet());
+		}
+		Iterator<String> it = ids.iterator();
+		while (it.hasNext()) {
+			remove(it.next());
+		}
+	}
+
+	private void evictIdle() {
+		long limit = System.currentTimeMillis() - IDLE_TIMEOUT;
+		List<String> ids = new Vector<>();
+		synchronized (this) {
+			Iterator<String> it = entries.keySet().iterator();
+			while (it.hasNext()) {
+				String id = it.next();
+				Entry entry = entries.get(id);
+				if (entry.leases == 0 && entry.lastUsed < limit) {
+					ids.add(id);
+				}
+			}
+		}
+		for (int i = 0; i < ids.size(); i++) {
+			String id = ids.get(i);
+			Entry entry = entries.get(id);
+			if (entry == null) {
+				continue;
+			}
+			synchronized (entry) {
+				synchronized (this) {
+					if (entry.leases > 0 || entry.lastUsed >= limit) {
+						// taken again meanwhile
+						continue;
+					}
+				}
+				try {
+					if (entry.engine != null) {
+						entry.engine.close();
+						entry.engine = null;
+					}
+				} catch (IOException | SQLException | URISyntaxException e) {
+					logger.log(Level.WARNING, e.getMessage(), e);
+				}
+				synchronized (this) {
+					if (entry.leases == 0) {
+						entry.removed = true;
+						entries.remove(id);
+					}
+				}
+			}
+		}
+	}
+}
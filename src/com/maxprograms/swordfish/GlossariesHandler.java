@@ -45,6 +45,7 @@ import org.xml.sax.SAXException;
 
 import com.maxprograms.converters.EncodingResolver;
 import com.maxprograms.languages.Language;
+import com.maxprograms.swordfish.EngineRegistry.Lease;
 import com.maxprograms.swordfish.models.Memory;
 import com.maxprograms.swordfish.tbx.Tbx2Tmx;
 import com.maxprograms.swordfish.tm.ITmEngine;
@@ -58,8 +59,7 @@ public class GlossariesHandler implements HttpHandler {
 
 	private static Logger logger = System.getLogger(GlossariesHandler.class.getName());
 
-	private static Map<String, ITmEngine> engines;
-	private static Map<String, Integer> openCount = new Hashtable<>();
+	private static EngineRegistry engines = new EngineRegistry();
 	private static Map<String, JSONObject> openTasks = new Hashtable<>();
 
 	@Override
@@ -173,7 +173,6 @@ public class GlossariesHandler implements HttpHandler {
 
 	private static Map<String, Memory> getGlossaries() throws IOException {
 		Map<String, Memory> glossaries = new Hashtable<>();
-		engines = new Hashtable<>();
 		File home = new File(getWorkFolder());
 		File list = new File(home, "glossaries.json");
 		if (!list.exists()) {
@@ -239,7 +238,7 @@ public class GlossariesHandler implements HttpHandler {
 					JSONArray array = json.getJSONArray("glossaries");
 					for (int i = 0; i < array.length(); i++) {
 						Memory mem = glossaries.get(array.getString(i));
-						closeGlossary(mem.getId());
+						engines.remove(mem.getId());
 						if (mem.getType().equals(Memory.LOCAL)) {
 							deleteGlossaryFolder(mem.getId());
 						}
@@ -291,11 +290,8 @@ public class GlossariesHandler implements HttpHandler {
 		obj.put(Constants.PROGRESS, Constants.PROCESSING);
 		openTasks.put(process, obj);
 		new Thread(() -> {
-			try {
-				Map<String, Memory> glossaries = getGlossaries();
-				Memory mem = glossaries.get(json.getString("glossary"));
-				openGlossary(mem);
-				ITmEngine engine = getEngine(mem.getId());
+			try (Lease lease = lease(json.getString("glossary"))) {
+				ITmEngine engine = lease.getEngine();
 				File tmx = new File(json.getString("file"));
 				Set<String> langSet = Collections.synchronizedSortedSet(new TreeSet<>());
 				if (json.has("languages")) {
@@ -307,7 +303,6 @@ public class GlossariesHandler implements HttpHandler {
 					langSet = engine.getAllLanguages();
 				}
 				engine.exportMemory(tmx.getAbsolutePath(), langSet, json.getString("srcLang"));
-				closeGlossary(mem.getId());
 				JSONObject completed = new JSONObject();
 				completed.put(Constants.PROGRESS, Constants.COMPLETED);
 				openTasks.put(process, completed);
@@ -323,50 +318,19 @@ public class GlossariesHandler implements HttpHandler {
 		return result;
 	}
 
-	public static synchronized void openGlossary(String id) throws IOException, SQLException, URISyntaxException {
-		Map<String, Memory> glossaries = getGlossaries();
-		openGlossary(glossaries.get(id));
-	}
-
-	public static synchronized void openGlossary(Memory memory) throws IOException, SQLException, URISyntaxException {
-		if (!engines.containsKey(memory.getId())) {
-			ITmEngine engine = memory.getType().equals(Memory.LOCAL)
-					? new SqliteDatabase(memory.getId(), getWorkFolder())
-					: new RemoteDatabase(memory.getServer(), memory.getUser(), memory.getPassword(), memory.getId());
-			engines.put(memory.getId(), engine);
-			openCount.put(memory.getId(), 0);
-		}
-		int count = openCount.get(memory.getId());
-		openCount.put(memory.getId(), count + 1);
-	}
-
-	public static ITmEngine getEngine(String id) throws IOException, SQLException, URISyntaxException {
-		if (!engines.containsKey(id)) {
-			openGlossary(id);
-		}
-		return engines.get(id);
+	/**
+	 * Returns a lease on the engine of glossary {@code id}. Close it when done.
+	 */
+	public static Lease lease(String id) throws IOException, SQLException, URISyntaxException {
+		return engines.acquire(id, () -> {
+			Memory memory = getGlossaries().get(id);
+			return memory.getType().equals(Memory.LOCAL) ? new SqliteDatabase(id, getWorkFolder())
+					: new RemoteDatabase(memory.getServer(), memory.getUser(), memory.getPassword(), id);
+		});
 	}
 
-	public static synchronized void closeGlossary(String id) throws IOException, SQLException, URISyntaxException {
-		if (engines != null && engines.containsKey(id)) {
-			int count = openCount.get(id);
-			if (count > 1) {
-				openCount.put(id, count - 1);
-				return;
-			}
-			engines.get(id).close();
-			engines.remove(id);
-			openCount.remove(id);
-		}
-	}
-
-	public static synchronized void closeAll() throws IOException, SQLException, URISyntaxException {
-		Set<String> keys = engines.keySet();
-		Iterator<String> it = keys.iterator();
-		while (it.hasNext()) {
-			engines.get(it.next()).close();
-		}
-		engines.clear();
+	public static void closeAll() throws IOException, SQLException, URISyntaxException {
+		engines.closeAll();
 	}
 
 	private JSONObject importGlossary(String request) {
@@ -392,9 +356,7 @@ public class GlossariesHandler implements HttpHandler {
 		obj.put(Constants.PROGRESS, Constants.PROCESSING);
 		openTasks.put(process, obj);
 		new Thread(() -> {
-			try {
-				Map<String, Memory> glossaries = getGlossaries();
-				openGlossary(glossaries.get(id));
+			try (Lease lease = lease(id)) {
 				File tempFile = null;
 				String tmxFile = glossFile.getAbsolutePath();
 				if (isTBX(glossFile)) {
@@ -402,7 +364,7 @@ public class GlossariesHandler implements HttpHandler {
 					Tbx2Tmx.convert(tmxFile, tempFile.getAbsolutePath());
 					tmxFile = tempFile.getAbsolutePath();
 				}
-				ITmEngine engine = getEngine(id);
+				ITmEngine engine = lease.getEngine();
 				String project = json.has("project") ? json.getString("project") : "";
 				String client = json.has("client") ? json.getString("client") : "";
 				String subject = json.has("subject") ? json.getString("subject") : "";
@@ -420,7 +382,6 @@ public class GlossariesHandler implements HttpHandler {
 					openTasks.put(process, error);
 					logger.log(Level.ERROR, e.getMessage(), e);
 				}
-				closeGlossary(id);
 				if (tempFile != null) {
 					Files.delete(tempFile.toPath());
 				}
@@ -510,12 +471,11 @@ public class GlossariesHandler implements HttpHandler {
 			Element tgtSeg = new Element("seg");
 			tgtSeg.setText(json.getString("targetTerm"));
 			tgtTuv.addContent(tgtSeg);
-			Map<String, Memory> glossaries = getGlossaries();
-			openGlossary(glossaries.get(glossary));
-			ITmEngine engine = getEngine(glossary);
-			engine.storeTu(tu);
-			engine.commit();
-			closeGlossary(glossary);
+			try (Lease lease = lease(glossary)) {
+				ITmEngine engine = lease.getEngine();
+				engine.storeTu(tu);
+				engine.commit();
+			}
 		} catch (IOException | SQLException | URISyntaxException e) {
 			logger.log(Level.ERROR, e);
 			result.put("result", Constants.ERROR);
@@ -539,13 +499,6 @@ public class GlossariesHandler implements HttpHandler {
 			String glossary = json.getString("glossary");
 			String termId = json.getString("termId");
 			
-			// 先删除原术语
-			Map<String, Memory> glossaries = getGlossaries();
-			openGlossary(glossaries.get(glossary));
-			ITmEngine engine = getEngine(glossary);
-			engine.removeTu(termId);
-			
-			// 添加新术语
 			Element tu = new Element("tu");
 			tu.setAttribute("id", termId);
 			Element srcTuv = new Element("tuv");
@@ -560,10 +513,15 @@ public class GlossariesHandler implements HttpHandler {
 			Element tgtSeg = new Element("seg");
 			tgtSeg.setText(json.getString("targetTerm"));
 			tgtTuv.addContent(tgtSeg);
-			
-			engine.storeTu(tu);
-			engine.commit();
-			closeGlossary(glossary);
+
+			try (Lease lease = lease(glossary)) {
+				ITmEngine engine = lease.getEngine();
+				// 先删除原术语
+				engine.removeTu(termId);
+				// 添加新术语
+				engine.storeTu(tu);
+				engine.commit();
+			}
 		} catch (IOException | SQLException | URISyntaxException | SAXException | ParserConfigurationException e) {
 			logger.log(Level.ERROR, e);
 			result.put("result", Constants.ERROR);
@@ -587,12 +545,11 @@ public class GlossariesHandler implements HttpHandler {
 			String glossary = json.getString("glossary");
 			String termId = json.getString("termId");
 			
-			Map<String, Memory> glossaries = getGlossaries();
-			openGlossary(glossaries.get(glossary));
-			ITmEngine engine = getEngine(glossary);
-			engine.removeTu(termId);
-			engine.commit();
-			closeGlossary(glossary);
+			try (Lease lease = lease(glossary)) {
+				ITmEngine engine = lease.getEngine();
+				engine.removeTu(termId);
+				engine.commit();
+			}
 		} catch (IOException | SQLException | URISyntaxException | SAXException | ParserConfigurationException e) {
 			logger.log(Level.ERROR, e);
 			result.put("result", Constants.ERROR);
@@ -615,10 +572,9 @@ public class GlossariesHandler implements HttpHandler {
 		String glossary = json.getString("glossary");
 		try {
 			List<Element> matches = new Vector<>();
-			Map<String, Memory> glossaries = getGlossaries();
-			openGlossary(glossaries.get(glossary));
-			matches.addAll(getEngine(glossary).searchAll(searchStr, srcLang, similarity, caseSensitive));
-			closeGlossary(glossary);
+			try (Lease lease = lease(glossary)) {
+				matches.addAll(lease.getEngine().searchAll(searchStr, srcLang, similarity, caseSensitive));
+			}
 			result.put("count", matches.size());
 			result.put("html", generateHTML(matches, glossary));
 		} catch (IOException | SAXException | ParserConfigurationException | SQLException | URISyntaxException e) {
@@ -817,11 +773,11 @@ public class GlossariesHandler implements HttpHandler {
 		try {
 			Map<String, Memory> glossaries = getGlossaries();
 			System.out.println("[getAllTerms] 找到术语库数量: " + glossaries.size());
-			openGlossary(glossaries.get(glossary));
-			ITmEngine engine = getEngine(glossary);
-			java.util.List<com.maxprograms.xml.Element> terms = engine.getAllTerms();
+			java.util.List<com.maxprograms.xml.Element> terms;
+			try (Lease lease = lease(glossary)) {
+				terms = lease.getEngine().getAllTerms();
+			}
 			System.out.println("[getAllTerms] 从数据库获取术语数量: " + terms.size());
-			closeGlossary(glossary);
 			JSONArray arr = new JSONArray();
 			
 			// 使用正确的术语构建模式，参考XliffStore.parseMatches方法
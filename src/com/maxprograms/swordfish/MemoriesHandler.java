@@ -46,8 +46,11 @@ import org.xml.sax.SAXException;
 
 import com.maxprograms.languages.Language;
 import com.maxprograms.languages.LanguageUtils;
+import com.maxprograms.swordfish.EngineRegistry.Lease;
 import com.maxprograms.swordfish.models.Memory;
+import com.maxprograms.swordfish.tm.Analyzers;
 import com.maxprograms.swordfish.tm.ITmEngine;
+import com.maxprograms.swordfish.tm.RegexpFunction;
 import com.maxprograms.swordfish.tm.RemoteDatabase;
 import com.maxprograms.swordfish.tm.SqliteDatabase;
 import com.maxprograms.swordfish.xliff.XliffUtils;
@@ -61,8 +64,8 @@ public class MemoriesHandler implements HttpHandler {
 
 	private static Logger logger = System.getLogger(MemoriesHandler.class.getName());
 
-	private static Map<String, ITmEngine> engines;
-	private static Map<String, Integer> openCount = new Hashtable<>();
+	private static EngineRegistry engines = new EngineRegistry();
+	private static Map<String, TuWriteQueue> writeQueues = new Hashtable<>();
 	private static Map<String, JSONObject> openTasks = new Hashtable<>();
 	private static Map<String, SqliteDatabase> localEngines = new Hashtable<>();
 
@@ -112,6 +115,8 @@ public class MemoriesHandler implements HttpHandler {
 				response = getProcessStatus(request);
 			} else if ("/memories/getLanguages".equals(url)) {
 				response = getLanguages(request);
+			} else if ("/memories/writeQueues".equals(url)) {
+				response = getWriteQueues();
 			} else {
 				MessageFormat mf = new MessageFormat(Messages.getString("MemoriesHandler.1"));
 				response.put(Constants.REASON, mf.format(new String[] { url }));
@@ -143,12 +148,11 @@ public class MemoriesHandler implements HttpHandler {
 		new Thread(() -> {
 			try {
 				String memory = json.getString("memory");
-				open(memory);
-				ITmEngine engine = getEngine(memory);
 				JSONArray array = new JSONArray();
-				Set<String> langs = engine.getAllLanguages();
-				array.put(langs);
-				close(memory);
+				try (Lease lease = lease(memory)) {
+					Set<String> langs = lease.getEngine().getAllLanguages();
+					array.put(langs);
+				}
 				JSONObject completed = new JSONObject();
 				completed.put("languages", array);
 				completed.put(Constants.PROGRESS, Constants.COMPLETED);
@@ -175,8 +179,12 @@ public class MemoriesHandler implements HttpHandler {
 		if (openTasks.containsKey(process)) {
 			JSONObject status = openTasks.get(process);
 			if (localEngines.containsKey(process)) {
-				SqliteDatabase engine = localEngines.get(process);
-				status.put("imported", engine.getCount());
+				JSONObject progress = localEngines.get(process).getImportStatus();
+				Iterator<String> keys = progress.keys();
+				while (keys.hasNext()) {
+					String key = keys.next();
+					status.put(key, progress.get(key));
+				}
 			}
 			return status;
 		}
@@ -197,6 +205,7 @@ public class MemoriesHandler implements HttpHandler {
 		String srcLang = json.getString("srcLang");
 		boolean isRegexp = json.getBoolean("regExp");
 		boolean caseSensitive = json.getBoolean("caseSensitive");
+		boolean unicode = json.has("unicode") && json.getBoolean("unicode");
 		int limit = json.getInt("limit");
 		JSONArray memoriesArray = json.getJSONArray("memories");
 		final String process = "" + System.currentTimeMillis();
@@ -207,7 +216,7 @@ public class MemoriesHandler implements HttpHandler {
 			try {
 				if (isRegexp) {
 					try {
-						Pattern.compile(searchStr);
+						RegexpFunction.compile(searchStr, RegexpFunction.flags(caseSensitive, unicode));
 					} catch (PatternSyntaxException e) {
 						throw new IOException(Messages.getString("MemoriesHandler.6"));
 					}
@@ -215,13 +224,13 @@ public class MemoriesHandler implements HttpHandler {
 				List<Element> matches = new Vector<>();
 				for (int i = 0; i < memoriesArray.length(); i++) {
 					String memory = memoriesArray.getString(i);
-					open(memory);
-					ITmEngine engine = getEngine(memory);
-					matches.addAll(engine.concordanceSearch(searchStr, srcLang, limit, isRegexp, caseSensitive));
-					close(memory);
+					try (Lease lease = lease(memory)) {
+						matches.addAll(lease.getEngine().concordanceSearch(searchStr, srcLang, limit, isRegexp,
+								caseSensitive, unicode));
+					}
 				}
 				result.put("count", matches.size());
-				result.put("html", generateHTML(matches, searchStr, isRegexp, caseSensitive));
+				result.put("html", generateHTML(matches, searchStr, isRegexp, caseSensitive, unicode));
 				result.put(Constants.PROGRESS, Constants.COMPLETED);
 				openTasks.put(process, result);
 			} catch (IOException | SAXException | ParserConfigurationException | SQLException | URISyntaxException e) {
@@ -258,17 +267,17 @@ public class MemoriesHandler implements HttpHandler {
 		obj.put(Constants.PROGRESS, Constants.PROCESSING);
 		openTasks.put(process, obj);
 		new Thread(() -> {
-			try {
-				open(memory);
-				ITmEngine engine = getEngine(memory);
+			try (Lease lease = lease(memory)) {
+				ITmEngine engine = lease.getEngine();
 				if (engine.getType().equals(SqliteDatabase.class.getName())) {
 					localEngines.put(process, (SqliteDatabase) engine);
 				}
 				String project = json.has("project") ? json.getString("project") : "";
 				String client = json.has("client") ? json.getString("client") : "";
 				String subject = json.has("subject") ? json.getString("subject") : "";
+				boolean resume = json.has("resume") && json.getBoolean("resume");
 				try {
-					int imported = engine.storeTMX(tmx.getAbsolutePath(), project, client, subject);
+					int imported = engine.storeTMX(tmx.getAbsolutePath(), project, client, subject, resume);
 					JSONObject completed = new JSONObject();
 					completed.put("imported", imported);
 					completed.put(Constants.PROGRESS, Constants.COMPLETED);
@@ -282,7 +291,6 @@ public class MemoriesHandler implements HttpHandler {
 				if (engine.getType().equals(SqliteDatabase.class.getName())) {
 					localEngines.remove(process);
 				}
-				close(memory);
 			} catch (IOException | SQLException | URISyntaxException e) {
 				logger.log(Level.ERROR, e.getMessage(), e);
 				JSONObject error = new JSONObject();
@@ -313,10 +321,8 @@ public class MemoriesHandler implements HttpHandler {
 		obj.put(Constants.PROGRESS, Constants.PROCESSING);
 		openTasks.put(process, obj);
 		new Thread(() -> {
-			try {
-				String memory = json.getString("memory");
-				open(memory);
-				ITmEngine engine = getEngine(memory);
+			try (Lease lease = lease(json.getString("memory"))) {
+				ITmEngine engine = lease.getEngine();
 				File tmx = new File(json.getString("tmx"));
 				Set<String> langSet = Collections.synchronizedSortedSet(new TreeSet<>());
 				if (json.has("languages")) {
@@ -327,8 +333,14 @@ public class MemoriesHandler implements HttpHandler {
 				} else {
 					langSet = engine.getAllLanguages();
 				}
-				engine.exportMemory(tmx.getAbsolutePath(), langSet, json.getString("srcLang"));
-				close(memory);
+				JSONObject options = new JSONObject();
+				String[] keys = { "project", "from", "to", "compress" };
+				for (String key : keys) {
+					if (json.has(key)) {
+						options.put(key, json.get(key));
+					}
+				}
+				engine.exportMemory(tmx.getAbsolutePath(), langSet, json.getString("srcLang"), options);
 				JSONObject completed = new JSONObject();
 				completed.put(Constants.PROGRESS, Constants.COMPLETED);
 				openTasks.put(process, completed);
@@ -360,7 +372,7 @@ public class MemoriesHandler implements HttpHandler {
 					for (int i = 0; i < array.length(); i++) {
 						String id = array.getString(i);
 						Memory memory = memories.get(id);
-						close(id);
+						engines.remove(id);
 						if (memory.getType().equals(Memory.LOCAL)) {
 							deleteMemoryFolder(id);
 						}
@@ -438,8 +450,39 @@ public class MemoriesHandler implements HttpHandler {
 			json.put("creationDate", System.currentTimeMillis());
 		}
 		Memory mem = new Memory(json);
-		ITmEngine engine = new SqliteDatabase(mem.getId(), getWorkFolder());
-		engine.close();
+		// fuzzy index analyzer by language, languages not listed use the default.
+		// Checked before the database folder is created
+		Map<String, String> analyzers = new Hashtable<>();
+		if (json.has("analyzers")) {
+			JSONObject object = json.getJSONObject("analyzers");
+			Iterator<String> it = object.keys();
+			while (it.hasNext()) {
+				String lang = it.next();
+				String code = LanguageUtils.normalizeCode(lang);
+				if (code == null || code.isEmpty()) {
+					MessageFormat mf = new MessageFormat(Messages.getString("MemoriesHandler.15"));
+					throw new IOException(mf.format(new String[] { lang }));
+				}
+				String name = object.getString(lang);
+				Analyzers.get(name);
+				analyzers.put(code, name);
+			}
+		}
+		SqliteDatabase engine = new SqliteDatabase(mem.getId(), getWorkFolder());
+		try {
+			try {
+				Iterator<String> it = analyzers.keySet().iterator();
+				while (it.hasNext()) {
+					String lang = it.next();
+					engine.setAnalyzer(lang, analyzers.get(lang));
+				}
+			} finally {
+				engine.close();
+			}
+		} catch (IOException | SQLException e) {
+			deleteMemoryFolder(mem.getId());
+			throw e;
+		}
 		Map<String, Memory> memories = getMemories();
 		memories.put(mem.getId(), mem);
 		ServicesHandler.addClient(json.getString("client"));
@@ -451,7 +494,6 @@ public class MemoriesHandler implements HttpHandler {
 
 	private static synchronized Map<String, Memory> getMemories() throws IOException {
 		Map<String, Memory> memories = new Hashtable<>();
-		engines = new Hashtable<>();
 		File home = new File(getWorkFolder());
 		File list = new File(home, "memories.json");
 		if (!list.exists()) {
@@ -492,46 +534,67 @@ public class MemoriesHandler implements HttpHandler {
 		return home.getAbsolutePath();
 	}
 
-	public static synchronized void open(String id) throws IOException, SQLException, URISyntaxException {
-		if (!engines.containsKey(id)) {
-			Map<String, Memory> memories = getMemories();
-			Memory memory = memories.get(id);
-			ITmEngine engine = memory.getType().equals(Memory.LOCAL) ? new SqliteDatabase(id, getWorkFolder())
+	/**
+	 * Returns a lease on the engine of memory {@code id}. Close it when done.
+	 */
+	public static Lease lease(String id) throws IOException, SQLException, URISyntaxException {
+		return engines.acquire(id, () -> {
+			Memory memory = getMemories().get(id);
+			return memory.getType().equals(Memory.LOCAL) ? new SqliteDatabase(id, getWorkFolder())
 					: new RemoteDatabase(memory.getServer(), memory.getUser(), memory.getPassword(), id);
-			engines.put(id, engine);
-			openCount.put(id, 0);
-		}
-		int count = openCount.get(id);
-		openCount.put(id, count + 1);
+		});
 	}
 
-	public static synchronized void close(String id) throws IOException, SQLException, URISyntaxException {
-		if (engines != null && engines.containsKey(id)) {
-			int count = openCount.get(id);
-			if (count > 1) {
-				openCount.put(id, count - 1);
-				return;
+	/**
+	 * Queues a TU to be stored in memory {@code id} by a background thread.
+	 */
+	public static void storeLater(String id, Element tu) {
+		TuWriteQueue queue;
+		synchronized (writeQueues) {
+			queue = writeQueues.get(id);
+			if (queue == null) {
+				queue = new TuWriteQueue(id);
+				writeQueues.put(id, queue);
 			}
-			engines.get(id).close();
-			engines.remove(id);
-			openCount.remove(id);
 		}
+		queue.add(tu);
 	}
 
-	public static synchronized void closeAll() throws IOException, SQLException, URISyntaxException {
-		Set<String> keys = engines.keySet();
-		Iterator<String> it = keys.iterator();
-		while (it.hasNext()) {
-			engines.get(it.next()).close();
+	/**
+	 * Waits until the TUs queued for memory {@code id} are stored.
+	 */
+	public static void flush(String id) throws InterruptedException {
+		TuWriteQueue queue = writeQueues.get(id);
+		if (queue != null) {
+			queue.flush();
 		}
-		engines.clear();
 	}
 
-	public static ITmEngine getEngine(String id) throws IOException, SQLException, URISyntaxException {
-		if (!engines.containsKey(id)) {
-			open(id);
+	private static JSONObject getWriteQueues() {
+		JSONObject result = new JSONObject();
+		JSONObject queues = new JSONObject();
+		synchronized (writeQueues) {
+			Iterator<String> it = writeQueues.keySet().iterator();
+			while (it.hasNext()) {
+				String id = it.next();
+				queues.put(id, writeQueues.get(id).getStatus());
+			}
 		}
-		return engines.get(id);
+		result.put("queues", queues);
+		return result;
+	}
+
+	public static void closeAll() throws IOException, SQLException, URISyntaxException {
+		List<String> ids = new Vector<>(writeQueues.keySet());
+		for (int i = 0; i < ids.size(); i++) {
+			try {
+				flush(ids.get(i));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		engines.closeAll();
 	}
 
 	public static String getName(String id) throws IOException {
@@ -539,8 +602,8 @@ public class MemoriesHandler implements HttpHandler {
 		return memories.get(id).getName();
 	}
 
-	private String generateHTML(List<Element> matches, String searchStr, boolean isRegexp, boolean caseSensitive)
-			throws IOException, SAXException, ParserConfigurationException {
+	private String generateHTML(List<Element> matches, String searchStr, boolean isRegexp, boolean caseSensitive,
+			boolean unicode) throws IOException, SAXException, ParserConfigurationException {
 		StringBuilder builder = new StringBuilder();
 		builder.append("<table class='stripes'><tr>");
 		List<Language> languages = getLanguages(matches);
@@ -553,7 +616,7 @@ public class MemoriesHandler implements HttpHandler {
 		builder.append("</tr>");
 		for (int i = 0; i < matches.size(); i++) {
 			builder.append("<tr>");
-			builder.append(parseTU(matches.get(i), languages, searchStr, isRegexp, caseSensitive));
+			builder.append(parseTU(matches.get(i), languages, searchStr, isRegexp, caseSensitive, unicode));
 			builder.append("</tr>");
 		}
 		builder.append("</table>");
@@ -561,7 +624,7 @@ public class MemoriesHandler implements HttpHandler {
 	}
 
 	private String parseTU(Element element, List<Language> languages, String searchStr, boolean isRegexp,
-			boolean caseSensitive) throws SAXException, IOException, ParserConfigurationException {
+			boolean caseSensitive, boolean unicode) throws SAXException, IOException, ParserConfigurationException {
 		StringBuilder builder = new StringBuilder();
 		Map<String, Element> map = new Hashtable<>();
 		List<Element> tuvs = element.getChildren("tuv");
@@ -581,7 +644,7 @@ public class MemoriesHandler implements HttpHandler {
 			builder.append("'>");
 			if (map.containsKey(lang.getCode())) {
 				Element seg = map.get(lang.getCode()).getChild("seg");
-				builder.append(highlight(pureText(seg), searchStr, isRegexp, caseSensitive));
+				builder.append(highlight(pureText(seg), searchStr, isRegexp, caseSensitive, unicode));
 			} else {
 				builder.append("&nbsp;");
 			}
@@ -590,10 +653,11 @@ public class MemoriesHandler implements HttpHandler {
 		return builder.toString();
 	}
 
-	private String highlight(String pureText, String searchStr, boolean regExp, boolean caseSensitive) {
+	private String highlight(String pureText, String searchStr, boolean regExp, boolean caseSensitive,
+			boolean unicode) {
 		StringBuilder text = new StringBuilder();
 		if (regExp) {
-			Pattern pattern = Pattern.compile(searchStr);
+			Pattern pattern = RegexpFunction.compile(searchStr, RegexpFunction.flags(caseSensitive, unicode));
 			String s = pureText;
 			Matcher matcher = pattern.matcher(s);
 			if (matcher.find()) {
@@ -206,6 +206,8 @@ public class ProjectsHandler implements HttpHandler {
 				response = lockDuplicates(request);
 			} else if ("/projects/unlockAll".equals(url)) {
 				response = unlockAll(request);
+			} else if ("/projects/rebuildStatistics".equals(url)) {
+				response = rebuildStatistics(request);
 			} else if ("/projects/analyzeSpaces".equals(url)) {
 				response = analyzeSpaces(request);
 			} else if ("/projects/fixSpaces".equals(url)) {
@@ -773,21 +775,24 @@ public class ProjectsHandler implements HttpHandler {
 		String filterLanguage = json.getString("filterLanguage");
 		boolean caseSensitiveFilter = json.getBoolean("caseSensitiveFilter");
 		boolean regExp = json.getBoolean("regExp");
+		boolean unicode = json.has("unicode") && json.getBoolean("unicode");
 		boolean showUntranslated = json.getBoolean("showUntranslated");
 		boolean showTranslated = json.getBoolean("showTranslated");
 		boolean showConfirmed = json.getBoolean("showConfirmed");
 		String sortOption = json.getString("sortOption");
 		boolean sortDesc = json.getBoolean("sortDesc");
 		try {
+			JSONObject cursor = json.has("cursor") ? json.getJSONObject("cursor") : new JSONObject();
 			List<JSONObject> list = store.getSegments(json.getInt("start"), json.getInt("count"), filterText,
-					filterLanguage, caseSensitiveFilter, regExp, showUntranslated, showTranslated, showConfirmed,
-					sortOption, sortDesc);
+					filterLanguage, caseSensitiveFilter, regExp, unicode, showUntranslated, showTranslated,
+					showConfirmed, sortOption, sortDesc, cursor);
 			JSONArray array = new JSONArray();
 			Iterator<JSONObject> it = list.iterator();
 			while (it.hasNext()) {
 				array.put(it.next());
 			}
 			result.put("segments", array);
+			result.put("cursor", cursor);
 		} catch (IOException | SAXException | ParserConfigurationException | DataFormatException | SQLException e) {
 			logger.log(Level.ERROR, Messages.getString("ProjectsHandler.9"), e);
 			result.put(Constants.REASON, e.getMessage());
@@ -1743,7 +1748,7 @@ public class ProjectsHandler implements HttpHandler {
 			if (projectStores.containsKey(project)) {
 				projectStores.get(project).lockDuplicates();
 			}
-		} catch (SQLException | JSONException | SAXException | IOException | ParserConfigurationException e) {
+		} catch (SQLException | JSONException e) {
 			logger.log(Level.ERROR, e);
 			result.put(Constants.REASON, e.getMessage());
 		}
@@ -1765,6 +1770,21 @@ public class ProjectsHandler implements HttpHandler {
 		return result;
 	}
 
+	private JSONObject rebuildStatistics(String request) {
+		JSONObject result = new JSONObject();
+		JSONObject json = new JSONObject(request);
+		try {
+			String project = json.getString("project");
+			if (projectStores.containsKey(project)) {
+				projectStores.get(project).rebuildStatistics();
+			}
+		} catch (SQLException | JSONException e) {
+			logger.log(Level.ERROR, e);
+			result.put(Constants.REASON, e.getMessage());
+		}
+		return result;
+	}
+
 	private JSONObject analyzeSpaces(String request) {
 		JSONObject result = new JSONObject();
 		JSONObject json = new JSONObject(request);
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.URISyntaxException;
+import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.json.JSONObject;
+
+import com.maxprograms.swordfish.EngineRegistry.Lease;
+import com.maxprograms.swordfish.tm.ITmEngine;
+import com.maxprograms.xml.Element;
+
+/**
+ * TUs of confirmed segments waiting to be stored in a memory. A worker thread
+ * writes them in batches with one commit per batch, after waiting
+ * {@link #DELAY} ms for more confirmations. A TU queued again before it is
+ * written replaces the pending one, so only the last confirmation of a segment
+ * is stored.
+ */
+class TuWriteQueue {
+
+	private static Logger logger = System.getLogger(TuWriteQueue.class.getName());
+
+	private static final int BATCH_SIZE = 500;
+	private static final long DELAY = 500;
+	// ms without work before the worker thread ends
+	private static final long IDLE_TIME = 30000;
+
+	private static class Pending {
+		Element tu;
+		long time;
+
+		Pending(Element tu, long time) {
+			this.tu = tu;
+			this.time = time;
+		}
+	}
+
+	private String memory;
+	private Map<String, Pending> pending;
+	private Thread worker;
+	private boolean writing;
+	private int flushing;
+	private long written;
+	private long failed;
+
+	TuWriteQueue(String memory) {
+		this.memory = memory;
+		pending = new LinkedHashMap<>();
+	}
+
+	synchronized void add(Element tu) {
+		String tuid = tu.getAttributeValue("tuid");
+		// the replacement goes to the end, with a new time
+		pending.remove(tuid);
+		pending.put(tuid, new Pending(tu, System.currentTimeMillis()));
+		startWorker();
+		notifyAll();
+	}
+
+	/**
+	 * Waits until all the TUs queued before the call are stored.
+	 */
+	synchronized void flush() throws InterruptedException {
+		flushing++;
+		try {
+			if (!pending.isEmpty()) {
+				startWorker();
+			}
+			notifyAll();
+			while (!pending.isEmpty() || writing) {
+				wait();
+			}
+		} finally {
+			flushing--;
+		}
+	}
+
+	/**
+	 * Returns the number of TUs waiting, the age in ms of the oldest one, the
+	 * number of TUs written so far and the number that could not be written.
+	 */
+	synchronized JSONObject getStatus() {
+		JSONObject status = new JSONObject();
+		status.put("depth", pending.size());
+		long lag = 0;
+		if (!pending.isEmpty()) {
+			lag = System.currentTimeMillis() - pending.values().iterator().next().time;
+		}
+		status.put("lag", lag);
+		status.put("written", written);
+		status.put("failed", failed);
+		return status;
+	}
+
+	private void startWorker() {
+		if (worker == null) {
+			worker = new Thread(this::run, "TuWriteQueue-" + memory);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	private void run() {
+		try {
+			while (true) {
+				List<Element> batch = nextBatch();
+				if (batch == null) {
+					return;
+				}
+				int stored = 0;
+				try {
+					write(batch);
+					stored = batch.size();
+				} catch (IOException | SQLException | URISyntaxException | RuntimeException e) {
+					MessageFormat mf = new MessageFormat(Messages.getString("TuWriteQueue.0"));
+					logger.log(Level.WARNING, mf.format(new String[] { "" + batch.size(), memory }), e);
+					stored = writeEach(batch);
+				}
+				synchronized (this) {
+					writing = false;
+					written += stored;
+					failed += batch.size() - stored;
+					notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			synchronized (this) {
+				worker = null;
+				writing = false;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits for a batch and removes it from the queue. Returns {@code null} and
+	 * ends the worker after {@link #IDLE_TIME} ms without work.
+	 */
+	private synchronized List<Element> nextBatch() throws InterruptedException {
+		while (true) {
+			if (pending.isEmpty()) {
+				wait(IDLE_TIME);
+				if (pending.isEmpty()) {
+					worker = null;
+					return null;
+				}
+				continue;
+			}
+			long wait = pending.values().iterator().next().time + DELAY - System.currentTimeMillis();
+			if (wait > 0 && pending.size() < BATCH_SIZE && flushing == 0) {
+				wait(wait);
+				continue;
+			}
+			List<Element> batch = new Vector<>();
+			Iterator<Pending> it = pending.values().iterator();
+			while (it.hasNext() && batch.size() < BATCH_SIZE) {
+				batch.add(it.next().tu);
+				it.remove();
+			}
+			writing = true;
+			return batch;
+		}
+	}
+
+	/**
+	 * Stores the TUs of a failed batch one at a time, committing each one, so
+	 * that only the TUs that cannot be stored are lost. Returns the number
+	 * stored.
+	 */
+	private int writeEach(List<Element> batch) {
+		int stored = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			Element tu = batch.get(i);
+			try {
+				write(List.of(tu));
+				stored++;
+			} catch (IOException | SQLException | URISyntaxException | RuntimeException e) {
+				MessageFormat mf = new MessageFormat(Messages.getString("TuWriteQueue.1"));
+				logger.log(Level.ERROR, mf.format(new String[] { tu.getAttributeValue("tuid"), memory }), e);
+			}
+		}
+		return stored;
+	}
+
+	private void write(List<Element> batch) throws IOException, SQLException, URISyntaxException {
+		try (Lease lease = MemoriesHandler.lease(memory)) {
+			ITmEngine engine = lease.getEngine();
+			for (int i = 0; i < batch.size(); i++) {
+				engine.storeTu(batch.get(i));
+			}
+			engine.commit();
+		}
+	}
+}
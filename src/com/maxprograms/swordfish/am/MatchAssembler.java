@@ -35,8 +35,8 @@ import com.maxprograms.swordfish.Constants;
 import com.maxprograms.swordfish.tm.ITmEngine;
 import com.maxprograms.swordfish.tm.Match;
 import com.maxprograms.swordfish.tm.MatchQuality;
-import com.maxprograms.swordfish.tm.NGrams;
 import com.maxprograms.swordfish.tm.TMUtils;
+import com.maxprograms.swordfish.tm.Tokenizer;
 import com.maxprograms.swordfish.xliff.DifferenceTagger;
 import com.maxprograms.swordfish.xliff.XliffStore;
 import com.maxprograms.swordfish.xliff.XliffUtils;
@@ -114,8 +114,8 @@ public class MatchAssembler {
                         }
                     } else {
                         // difference may be term
-                        List<Match> tgtList = glossEngine.searchTranslation(tgtDiff, srcLang, tgtLang, 100, true);
-                        List<Match> srcList = glossEngine.searchTranslation(srcDiff, srcLang, tgtLang, 100, true);
+                        List<Match> tgtList = glossEngine.searchTranslation(tgtDiff, srcLang, tgtLang, 100, true, 1);
+                        List<Match> srcList = glossEngine.searchTranslation(srcDiff, srcLang, tgtLang, 100, true, 1);
 
                         if (!srcList.isEmpty() && !tgtList.isEmpty()) {
                             String tgtTerm = tgtList.get(0).getTarget().getText();
@@ -154,8 +154,7 @@ public class MatchAssembler {
 
         if (result.isEmpty()) {
             Language sourceLanguage = LanguageUtils.getLanguage(srcLang);
-            List<String> words = sourceLanguage.isCJK() ? XliffStore.cjkWordList(pureText, NGrams.TERM_SEPARATORS)
-                    : NGrams.buildWordList(pureText, NGrams.TERM_SEPARATORS);
+            List<String> words = Tokenizer.getWords(pureText, sourceLanguage.isCJK());
             List<Term> terms = new Vector<>();
             for (int i = 0; i < words.size(); i++) {
                 StringBuilder termBuilder = new StringBuilder();
@@ -168,7 +167,7 @@ public class MatchAssembler {
                         String term = termBuilder.toString().trim();
                         if (!visited.contains(term)) {
                             visited.add(term);
-                            List<Match> res = glossEngine.searchTranslation(term, srcLang, tgtLang, 100, true);
+                            List<Match> res = glossEngine.searchTranslation(term, srcLang, tgtLang, 100, true, 1);
                             if (!res.isEmpty()) {
                                 Match m = res.get(0);
                                 terms.add(new Term(m.getSource().getText(), m.getTarget().getText(), srcLang, tgtLang,
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+/**
+ * Turns text into the n-gram hashes stored in the fuzzy index of a memory. A
+ * language of a memory keeps the analyzer used when it was first indexed.
+ */
+public interface Analyzer {
+
+	/**
+	 * Returns the name recorded in the memory for this analyzer.
+	 */
+	String getName();
+
+	/**
+	 * Returns the sorted n-gram hashes of {@code text}, without repetitions.
+	 */
+	int[] getNGrams(String text);
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Analyzers available for fuzzy indexes:
+ * <ul>
+ * <li>{@link #WORDS}: groups of three characters of each word, as computed by
+ * {@link NGrams#getNGrams(String)}. Used by all memories created before
+ * analyzers could be chosen.</li>
+ * <li>{@link #CHARS}: overlapping pairs of characters, for languages written
+ * without spaces between words.</li>
+ * <li>{@link #SHINGLES}: each word and each pair of consecutive words.</li>
+ * </ul>
+ * {@link #CHARS} and {@link #SHINGLES} apply NFKC normalization and case
+ * folding, read text by code points and treat everything except letters,
+ * digits and combining marks as separators.
+ */
+public class Analyzers {
+
+	private Analyzers() {
+		// private for security
+	}
+
+	public static final String WORDS = "words";
+	public static final String CHARS = "chars";
+	public static final String SHINGLES = "shingles";
+
+	// languages written without spaces between words, or with long compounds
+	private static final Set<String> UNSPACED = Set.of("zh", "ja", "ko", "th", "lo", "km", "my", "bo");
+
+	private static final Analyzer words = new Analyzer() {
+
+		@Override
+		public String getName() {
+			return WORDS;
+		}
+
+		@Override
+		public int[] getNGrams(String text) {
+			return NGrams.getNGrams(text);
+		}
+	};
+
+	private static final Analyzer chars = new Analyzer() {
+
+		@Override
+		public String getName() {
+			return CHARS;
+		}
+
+		@Override
+		public int[] getNGrams(String text) {
+			String src = normalize(text);
+			int length = src.length();
+			int[] hashes = new int[length];
+			int count = 0;
+			int start = 0;
+			while (start < length) {
+				int first = src.codePointAt(start);
+				int end = start + Character.charCount(first);
+				if (!isContent(first)) {
+					start = end;
+					continue;
+				}
+				int previous = first;
+				int pairs = 0;
+				while (end < length) {
+					int c = src.codePointAt(end);
+					if (!isContent(c)) {
+						break;
+					}
+					hashes[count++] = 31 * previous + c;
+					pairs++;
+					previous = c;
+					end += Character.charCount(c);
+				}
+				if (pairs == 0) {
+					hashes[count++] = first;
+				}
+				start = end;
+			}
+			return NGrams.distinct(hashes, count);
+		}
+	};
+
+	private static final Analyzer shingles = new Analyzer() {
+
+		@Override
+		public String getName() {
+			return SHINGLES;
+		}
+
+		@Override
+		public int[] getNGrams(String text) {
+			String src = normalize(text);
+			int length = src.length();
+			int[] hashes = new int[length * 2];
+			int count = 0;
+			boolean hasPrevious = false;
+			int previous = 0;
+			int start = 0;
+			while (start < length) {
+				int c = src.codePointAt(start);
+				if (!isContent(c)) {
+					start += Character.charCount(c);
+					continue;
+				}
+				int hash = 0;
+				int power = 1;
+				int end = start;
+				while (end < length && isContent(c = src.codePointAt(end))) {
+					hash = 31 * hash + c;
+					power *= 31;
+					end += Character.charCount(c);
+				}
+				hashes[count++] = hash;
+				if (hasPrevious) {
+					// same as hashing the code points of both words joined by a space
+					hashes[count++] = previous * power * 31 + ' ' * power + hash;
+				}
+				hasPrevious = true;
+				previous = hash;
+				start = end;
+			}
+			return NGrams.distinct(hashes, count);
+		}
+	};
+
+	/**
+	 * Returns the analyzer with the given name.
+	 */
+	public static Analyzer get(String name) throws IOException {
+		if (WORDS.equals(name)) {
+			return words;
+		}
+		if (CHARS.equals(name)) {
+			return chars;
+		}
+		if (SHINGLES.equals(name)) {
+			return shingles;
+		}
+		MessageFormat mf = new MessageFormat(Messages.getString("Analyzers.0"));
+		throw new IOException(mf.format(new String[] { name }));
+	}
+
+	/**
+	 * Returns the name of the analyzer used for {@code lang} when a memory
+	 * indexes that language for the first time.
+	 */
+	public static String getDefault(String lang) {
+		int index = lang.indexOf('-');
+		String primary = (index == -1 ? lang : lang.substring(0, index)).toLowerCase(Locale.ROOT);
+		return UNSPACED.contains(primary) ? CHARS : WORDS;
+	}
+
+	/**
+	 * Returns the analyzer named by {@link #getDefault(String)} for {@code lang}.
+	 */
+	public static Analyzer getDefaultAnalyzer(String lang) {
+		return CHARS.equals(getDefault(lang)) ? chars : words;
+	}
+
+	private static String normalize(String text) {
+		return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+	}
+
+	private static boolean isContent(int c) {
+		if (Character.isLetterOrDigit(c)) {
+			return true;
+		}
+		int type = Character.getType(c);
+		return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK
+				|| type == Character.ENCLOSING_MARK;
+	}
+}
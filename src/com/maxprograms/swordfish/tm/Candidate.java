@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+/**
+ * TU found in the n-gram index while searching for fuzzy matches.
+ */
+class Candidate {
+
+	int ordinal;
+	int overlap;
+	String tuid;
+	String text;
+	int length;
+	int bound;
+	int similarity;
+
+	Candidate(int ordinal, int overlap) {
+		this.ordinal = ordinal;
+		this.overlap = overlap;
+	}
+
+	Candidate(Candidate row, int overlap) {
+		this(row.ordinal, overlap);
+		tuid = row.tuid;
+		text = row.text;
+		length = row.length;
+	}
+}
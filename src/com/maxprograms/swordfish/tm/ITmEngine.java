@@ -38,10 +38,28 @@ public interface ITmEngine {
 	public abstract int storeTMX(String tmxFile, String project, String customer, String subject)
 			throws SAXException, IOException, ParserConfigurationException, SQLException, URISyntaxException;
 
+	/**
+	 * Same as {@link #storeTMX(String, String, String, String)}. When
+	 * {@code resume} is set and an earlier import of the same file was
+	 * interrupted, the TUs it already saved are skipped.
+	 */
+	public abstract int storeTMX(String tmxFile, String project, String customer, String subject, boolean resume)
+			throws SAXException, IOException, ParserConfigurationException, SQLException, URISyntaxException;
+
 	public abstract void exportMemory(String tmxfile, Set<String> langs, String srcLang)
 			throws IOException, SAXException, ParserConfigurationException, SQLException, JSONException,
 			URISyntaxException;
 
+	/**
+	 * Same as {@link #exportMemory(String, Set, String)} with these optional
+	 * settings in {@code options}: {@code project} exports only the TUs of that
+	 * project, {@code from} and {@code to} limit the TU creation dates (TMX
+	 * format, both included) and {@code compress} writes the file with gzip.
+	 */
+	public abstract void exportMemory(String tmxfile, Set<String> langs, String srcLang, JSONObject options)
+			throws IOException, SAXException, ParserConfigurationException, SQLException, JSONException,
+			URISyntaxException;
+
 	public abstract Set<String> getAllClients() throws SQLException, IOException, URISyntaxException;
 
 	public abstract Set<String> getAllLanguages() throws SQLException, IOException, URISyntaxException;
@@ -53,12 +71,30 @@ public interface ITmEngine {
 	public abstract List<Match> searchTranslation(String searchStr, String srcLang, String tgtLang, int similarity,
 			boolean caseSensitive) throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException;
 
+	/**
+	 * Same as {@link #searchTranslation(String, String, String, int, boolean)}
+	 * but returns at most {@code limit} matches, the best ones. A {@code limit}
+	 * of 0 returns all matches.
+	 */
+	public abstract List<Match> searchTranslation(String searchStr, String srcLang, String tgtLang, int similarity,
+			boolean caseSensitive, int limit)
+			throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException;
+
 	public abstract List<Element> searchAll(String searchStr, String srcLang, int similarity, boolean caseSensitive)
 			throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException;
 
 	public abstract List<Element> concordanceSearch(String searchStr, String srcLang, int limit, boolean isRegexp,
 			boolean caseSensitive) throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException;
 
+	/**
+	 * Same as {@link #concordanceSearch(String, String, int, boolean, boolean)}
+	 * with the option of matching regular expression classes like {@code \w}
+	 * with Unicode rules.
+	 */
+	public abstract List<Element> concordanceSearch(String searchStr, String srcLang, int limit, boolean isRegexp,
+			boolean caseSensitive, boolean unicode)
+			throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException;
+
 	public abstract void storeTu(Element tu) throws IOException, SQLException, URISyntaxException;
 
 	public abstract void commit() throws SQLException, IOException, URISyntaxException;
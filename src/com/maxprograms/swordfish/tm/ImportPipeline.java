@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.json.JSONObject;
+import org.xml.sax.SAXException;
+
+import com.maxprograms.languages.LanguageUtils;
+import com.maxprograms.swordfish.tmx.TMXReader;
+import com.maxprograms.xml.Element;
+
+/**
+ * Imports a TMX file in three stages: one thread parses the file, a pool of
+ * workers extracts the text and n-grams of each TU, and the calling thread
+ * writes the results in document order, the only one that uses the database.
+ * The queue between parser and writer is bounded, so parsing waits when
+ * writing falls behind.
+ * <p>
+ * After each commit that saves everything, the number of TUs read from the
+ * file is recorded in a checkpoint file. An interrupted import can start
+ * again from there: the TUs before the checkpoint are parsed but skipped.
+ */
+class ImportPipeline {
+
+	private static final Logger logger = System.getLogger(ImportPipeline.class.getName());
+
+	private static final int QUEUE_SIZE = 1024;
+	private static final int COMMIT_SIZE = 500;
+	// TUs between checkpoints of a bulk load, which saves everything only then
+	private static final int BULK_CHECKPOINT = 100 * COMMIT_SIZE;
+	// one TU in this many is measured to estimate the TUs in the file
+	private static final int SAMPLE_RATE = 64;
+
+	private SqliteDatabase db;
+	private JSONObject job;
+	private File checkpoint;
+	private BlockingQueue<Future<TuEntry>> queue;
+	private volatile int count;
+	private volatile Exception failure;
+	private int skip;
+	private int parsed;
+	private long start;
+	private volatile long sampledBytes;
+	private volatile int sampledTus;
+
+	/**
+	 * @param job        description of the import, saved with the count of
+	 *                   TUs in {@code checkpoint}
+	 * @param checkpoint file that records the progress
+	 */
+	ImportPipeline(SqliteDatabase db, JSONObject job, File checkpoint) {
+		this.db = db;
+		this.job = job;
+		this.checkpoint = checkpoint;
+		queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	}
+
+	/**
+	 * Returns the number of TUs processed so far, including the ones that
+	 * could not be imported and the ones skipped when resuming.
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of TUs imported per second.
+	 */
+	double getRate() {
+		long elapsed = System.nanoTime() - start;
+		if (start == 0 || elapsed <= 0) {
+			return 0;
+		}
+		return (count - skip) * 1e9 / elapsed;
+	}
+
+	/**
+	 * Estimates the seconds left, using the average size of the TUs read so
+	 * far. Returns -1 while there is no estimate.
+	 */
+	long getEta() {
+		double rate = getRate();
+		if (sampledTus == 0 || rate == 0) {
+			return -1;
+		}
+		long total = job.getLong("size") * sampledTus / sampledBytes;
+		return Math.max(0, (long) ((total - count) / rate));
+	}
+
+	int run(File tmxFile, int skipped)
+			throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
+		skip = skipped;
+		count = skipped;
+		start = System.nanoTime();
+		// load the language registry before the workers need it
+		LanguageUtils.normalizeCode("en");
+		ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		Thread parser = new Thread(() -> parse(tmxFile, workers));
+		parser.start();
+		try {
+			while (true) {
+				Future<TuEntry> next = queue.take();
+				TuEntry entry = null;
+				boolean failed = false;
+				try {
+					entry = next.get();
+				} catch (ExecutionException e) {
+					// already logged by the worker, still counted so that resuming skips it
+					failed = true;
+				}
+				if (!failed) {
+					if (entry == null) {
+						break;
+					}
+					try {
+						db.storeTu(entry);
+					} catch (IOException | SQLException e) {
+						MessageFormat mf = new MessageFormat(Messages.getString("ImportPipeline.0"));
+						logger.log(Level.WARNING, mf.format(new String[] { entry.tu.toString() }), e);
+					}
+				}
+				count++;
+				if (count % COMMIT_SIZE == 0) {
+					if (db.isBulkLoading() && count % BULK_CHECKPOINT != 0) {
+						db.commit();
+					} else {
+						db.flush();
+						saveCheckpoint();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} finally {
+			parser.interrupt();
+			workers.shutdownNow();
+		}
+		if (failure instanceof SAXException e) {
+			throw e;
+		}
+		if (failure instanceof ParserConfigurationException e) {
+			throw e;
+		}
+		if (failure instanceof IOException e) {
+			throw e;
+		}
+		if (failure != null) {
+			throw new IOException(failure);
+		}
+		return count;
+	}
+
+	private void parse(File tmxFile, ExecutorService workers) {
+		try {
+			TMXReader reader = new TMXReader(tu -> submit(tu, workers));
+			reader.parse(tmxFile.toURI().toURL());
+		} catch (IOException | SAXException | ParserConfigurationException | RuntimeException e) {
+			failure = e;
+		}
+		try {
+			// end of the file, or of the part that could be read
+			queue.put(CompletableFuture.completedFuture(null));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void submit(Element tu, ExecutorService workers) throws SAXException {
+		parsed++;
+		if (parsed <= skip) {
+			return;
+		}
+		if (parsed % SAMPLE_RATE == 0) {
+			// read before a worker changes the TU
+			sampledBytes += tu.toString().getBytes(StandardCharsets.UTF_8).length;
+			sampledTus++;
+		}
+		try {
+			queue.put(workers.submit(() -> prepare(tu)));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SAXException(e);
+		}
+	}
+
+	private void saveCheckpoint() throws IOException {
+		job.put("count", count);
+		File temp = new File(checkpoint.getParentFile(), checkpoint.getName() + ".tmp");
+		Files.writeString(temp.toPath(), job.toString(), StandardCharsets.UTF_8);
+		Files.move(temp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private TuEntry prepare(Element tu) throws IOException, SQLException {
+		try {
+			return db.prepareTu(tu);
+		} catch (IOException | SQLException | RuntimeException e) {
+			MessageFormat mf = new MessageFormat(Messages.getString("ImportPipeline.0"));
+			logger.log(Level.WARNING, mf.format(new String[] { tu.toString() }), e);
+			throw e;
+		}
+	}
+}
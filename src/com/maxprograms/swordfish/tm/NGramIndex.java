@@ -0,0 +1,402 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index from n-gram hashes to the dense ordinals of the TUs that
+ * contain them. Each language is stored as a small set of immutable
+ * {@link PostingsFile} files plus an in-memory buffer of pending postings that
+ * is written to disk on commit. Small files are merged as they accumulate, so
+ * a language normally has only a few files.
+ */
+public class NGramIndex {
+
+	static final int FLUSH_SIZE = 1 << 22;
+	static final int MAX_FILES = 16;
+
+	private static final Pattern FILE_NAME = Pattern.compile("postings_(.+)_(\\d+)_(\\d+)\\.idx");
+
+	private File folder;
+	private Map<String, Postings> languages;
+	private AtomicLong generation;
+
+	public NGramIndex(File folder) {
+		this.folder = folder;
+		languages = new Hashtable<>();
+		generation = new AtomicLong();
+		File[] list = folder.listFiles();
+		if (list != null) {
+			for (File f : list) {
+				Matcher matcher = FILE_NAME.matcher(f.getName());
+				if (matcher.matches()) {
+					generation.accumulateAndGet(Long.parseLong(matcher.group(3)), Math::max);
+				}
+			}
+		}
+	}
+
+	public boolean exists(String lang) throws IOException {
+		return getLanguage(lang).isIndexed();
+	}
+
+	public void add(String lang, int ngram, int ordinal) throws IOException {
+		getLanguage(lang).add(ngram, ordinal);
+	}
+
+	public int[] getPostings(String lang, int ngram) throws IOException {
+		return getLanguage(lang).get(ngram);
+	}
+
+	/**
+	 * Counts how many of the given n-grams each TU contains.
+	 *
+	 * @return two arrays of the same length: ascending ordinals and the number
+	 *         of n-grams found for each ordinal
+	 */
+	public int[][] countCandidates(String lang, int[] ngrams) throws IOException {
+		Postings postings = getLanguage(lang);
+		List<int[]> lists = new Vector<>();
+		for (int i = 0; i < ngrams.length; i++) {
+			lists.add(postings.get(ngrams[i]));
+		}
+		return count(lists);
+	}
+
+	/**
+	 * Same as {@link #countCandidates(String, int[])} for several texts at once.
+	 * Each distinct n-gram is read from the index only once.
+	 */
+	public List<int[][]> countCandidates(String lang, List<int[]> queries) throws IOException {
+		Postings postings = getLanguage(lang);
+		Map<Integer, int[]> cache = new HashMap<>();
+		List<int[][]> result = new Vector<>();
+		for (int i = 0; i < queries.size(); i++) {
+			int[] ngrams = queries.get(i);
+			List<int[]> lists = new Vector<>();
+			for (int j = 0; j < ngrams.length; j++) {
+				lists.add(cache.computeIfAbsent(ngrams[j], postings::get));
+			}
+			result.add(count(lists));
+		}
+		return result;
+	}
+
+	public synchronized void commit() throws IOException {
+		Iterator<Postings> it = languages.values().iterator();
+		while (it.hasNext()) {
+			it.next().flush();
+		}
+	}
+
+	public synchronized void rollback() {
+		Iterator<Postings> it = languages.values().iterator();
+		while (it.hasNext()) {
+			it.next().clear();
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		commit();
+		languages.clear();
+	}
+
+	private synchronized Postings getLanguage(String lang) throws IOException {
+		if (!languages.containsKey(lang)) {
+			languages.put(lang, new Postings(lang));
+		}
+		return languages.get(lang);
+	}
+
+	private long nextGeneration() {
+		return generation.incrementAndGet();
+	}
+
+	/**
+	 * Merges sorted ordinal lists, counting the lists in which each ordinal
+	 * appears.
+	 */
+	static int[][] count(List<int[]> lists) {
+		int k = lists.size();
+		int[][] arrays = lists.toArray(new int[k][]);
+		int[] heap = new int[k];
+		int[] positions = new int[k];
+		int heapSize = 0;
+		int total = 0;
+		for (int i = 0; i < k; i++) {
+			if (arrays[i].length > 0) {
+				heap[heapSize++] = i;
+				total += arrays[i].length;
+			}
+		}
+		for (int i = heapSize / 2 - 1; i >= 0; i--) {
+			siftDown(heap, heapSize, i, arrays, positions);
+		}
+		int[] ordinals = new int[total];
+		int[] counts = new int[total];
+		int size = 0;
+		while (heapSize > 0) {
+			int top = heap[0];
+			int value = arrays[top][positions[top]];
+			if (size > 0 && ordinals[size - 1] == value) {
+				counts[size - 1]++;
+			} else {
+				ordinals[size] = value;
+				counts[size] = 1;
+				size++;
+			}
+			positions[top]++;
+			if (positions[top] == arrays[top].length) {
+				heap[0] = heap[--heapSize];
+			}
+			siftDown(heap, heapSize, 0, arrays, positions);
+		}
+		return new int[][] { Arrays.copyOf(ordinals, size), Arrays.copyOf(counts, size) };
+	}
+
+	private static void siftDown(int[] heap, int heapSize, int i, int[][] arrays, int[] positions) {
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= heapSize) {
+				return;
+			}
+			int smallest = left;
+			int right = left + 1;
+			if (right < heapSize && head(heap[right], arrays, positions) < head(heap[left], arrays, positions)) {
+				smallest = right;
+			}
+			if (head(heap[i], arrays, positions) <= head(heap[smallest], arrays, positions)) {
+				return;
+			}
+			int swap = heap[i];
+			heap[i] = heap[smallest];
+			heap[smallest] = swap;
+			i = smallest;
+		}
+	}
+
+	private static int head(int list, int[][] arrays, int[] positions) {
+		return arrays[list][positions[list]];
+	}
+
+	private static int[] union(List<int[]> lists) {
+		if (lists.isEmpty()) {
+			return new int[0];
+		}
+		if (lists.size() == 1) {
+			return lists.get(0);
+		}
+		int total = 0;
+		for (int[] list : lists) {
+			total += list.length;
+		}
+		int[] result = new int[total];
+		int size = 0;
+		for (int[] list : lists) {
+			System.arraycopy(list, 0, result, size, list.length);
+			size += list.length;
+		}
+		Arrays.sort(result);
+		int unique = 0;
+		for (int i = 0; i < total; i++) {
+			if (i == 0 || result[i] != result[i - 1]) {
+				result[unique++] = result[i];
+			}
+		}
+		return unique == total ? result : Arrays.copyOf(result, unique);
+	}
+
+	private class Postings {
+
+		private String lang;
+		private List<PostingsFile> files;
+		private long[] buffer;
+		private int size;
+		private boolean sorted;
+
+		Postings(String lang) throws IOException {
+			this.lang = lang;
+			files = new Vector<>();
+			buffer = new long[1024];
+			sorted = true;
+			load();
+		}
+
+		private void load() throws IOException {
+			List<File> found = new Vector<>();
+			List<long[]> ranges = new Vector<>();
+			File[] list = folder.listFiles();
+			if (list != null) {
+				for (File f : list) {
+					Matcher matcher = FILE_NAME.matcher(f.getName());
+					if (matcher.matches() && lang.equals(matcher.group(1))) {
+						found.add(f);
+						ranges.add(new long[] { Long.parseLong(matcher.group(2)), Long.parseLong(matcher.group(3)) });
+					}
+				}
+			}
+			for (int i = 0; i < found.size(); i++) {
+				long[] range = ranges.get(i);
+				boolean covered = false;
+				for (int j = 0; j < found.size(); j++) {
+					long[] other = ranges.get(j);
+					if (i != j && other[0] <= range[0] && range[1] <= other[1]
+							&& (other[0] != range[0] || other[1] != range[1])) {
+						covered = true;
+						break;
+					}
+				}
+				if (covered) {
+					// left behind by a merge that could not delete its sources
+					delete(found.get(i));
+				} else {
+					files.add(new PostingsFile(found.get(i), range[0], range[1]));
+				}
+			}
+			files.sort((a, b) -> Long.compare(a.getFirst(), b.getFirst()));
+		}
+
+		synchronized boolean isIndexed() {
+			return !files.isEmpty() || size > 0;
+		}
+
+		synchronized void add(int ngram, int ordinal) throws IOException {
+			if (size == buffer.length) {
+				buffer = Arrays.copyOf(buffer, size * 2);
+			}
+			buffer[size++] = ((long) ngram << 32) | (ordinal & 0xFFFFFFFFL);
+			sorted = false;
+			if (size >= FLUSH_SIZE) {
+				flush();
+			}
+		}
+
+		synchronized int[] get(int ngram) {
+			List<int[]> lists = new Vector<>();
+			for (int i = 0; i < files.size(); i++) {
+				int[] postings = files.get(i).getPostings(ngram);
+				if (postings.length > 0) {
+					lists.add(postings);
+				}
+			}
+			if (size > 0) {
+				int[] pending = getPending(ngram);
+				if (pending.length > 0) {
+					lists.add(pending);
+				}
+			}
+			return union(lists);
+		}
+
+		private int[] getPending(int ngram) {
+			if (!sorted) {
+				Arrays.sort(buffer, 0, size);
+				int unique = 0;
+				for (int i = 0; i < size; i++) {
+					if (i == 0 || buffer[i] != buffer[i - 1]) {
+						buffer[unique++] = buffer[i];
+					}
+				}
+				size = unique;
+				sorted = true;
+			}
+			long key = (long) ngram << 32;
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (buffer[mid] < key) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			int end = low;
+			while (end < size && (int) (buffer[end] >> 32) == ngram) {
+				end++;
+			}
+			int[] result = new int[end - low];
+			for (int i = low; i < end; i++) {
+				result[i - low] = (int) buffer[i];
+			}
+			return result;
+		}
+
+		synchronized void flush() throws IOException {
+			if (size == 0) {
+				return;
+			}
+			long gen = nextGeneration();
+			File f = getFile(gen, gen);
+			PostingsFile.write(f, buffer, size);
+			files.add(new PostingsFile(f, gen, gen));
+			clear();
+			while (files.size() > 1) {
+				PostingsFile newest = files.get(files.size() - 1);
+				PostingsFile previous = files.get(files.size() - 2);
+				if (files.size() <= MAX_FILES && newest.length() < previous.length()) {
+					break;
+				}
+				merge(files.size() - 2);
+			}
+		}
+
+		synchronized void clear() {
+			if (buffer.length > 1024) {
+				buffer = new long[1024];
+			}
+			size = 0;
+			sorted = true;
+		}
+
+		private void merge(int from) throws IOException {
+			List<PostingsFile> sources = new Vector<>();
+			sources.addAll(files.subList(from, files.size()));
+			PostingsFile first = sources.get(0);
+			PostingsFile last = sources.get(sources.size() - 1);
+			File f = getFile(first.getFirst(), last.getLast());
+			PostingsFile.merge(f, sources);
+			files.removeAll(sources);
+			files.add(new PostingsFile(f, first.getFirst(), last.getLast()));
+			for (int i = 0; i < sources.size(); i++) {
+				delete(sources.get(i).getFile());
+			}
+		}
+
+		private File getFile(long first, long last) {
+			return new File(folder, "postings_" + lang + "_" + first + "_" + last + ".idx");
+		}
+
+		private void delete(File f) {
+			try {
+				Files.deleteIfExists(f.toPath());
+			} catch (IOException e) {
+				// still mapped on some platforms, try again on next load
+				f.deleteOnExit();
+			}
+		}
+	}
+}
@@ -12,10 +12,8 @@
 
 package com.maxprograms.swordfish.tm;
 
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -29,40 +27,88 @@ public class NGrams {
 	public static final String SEPARATORS = " \r\n\f\t\u2028\u2029,.;\":<>¿?¡!()[]{}=+-/*\u00AB\u00BB\u201C\u201D\u201E\uFF00";
 	// allow hyphen in terms
 	public static final String TERM_SEPARATORS = " \u00A0\r\n\f\t\u2028\u2029,.;\":<>¿?¡!()[]{}=+/*\u00AB\u00BB\u201C\u201D\u201E\uFF00";
+	private static final boolean[] ASCII_SEPARATORS = new boolean[128];
 
+	static {
+		for (int i = 0; i < SEPARATORS.length(); i++) {
+			char c = SEPARATORS.charAt(i);
+			if (c < 128) {
+				ASCII_SEPARATORS[c] = true;
+			}
+		}
+	}
+
+	// grows as needed, one per thread
+	private static final ThreadLocal<int[]> buffers = ThreadLocal.withInitial(() -> new int[64]);
+
+	/**
+	 * Returns the sorted hashes of the n-grams of the words in {@code source},
+	 * without repetitions. Words are split into consecutive groups of three
+	 * characters, the last one possibly shorter, and each group is hashed as
+	 * {@link String#hashCode()} would do.
+	 */
 	public static int[] getNGrams(String source) {
 		String src = source.toLowerCase();
-		List<String> words = buildWordList(src, SEPARATORS);
-		Map<String, String> table = new Hashtable<>();
-
-		Iterator<String> it = words.iterator();
-		while (it.hasNext()) {
-			String word = it.next();
-			char[] array = word.toCharArray();
-			int length = word.length();
-			int ngrams = length / NGRAMSIZE;
-			if (ngrams * NGRAMSIZE < length) {
-				ngrams++;
-			}
-			for (int i = 0; i < ngrams; i++) {
-				StringBuilder gram = new StringBuilder();
-				for (int j = 0; j < NGRAMSIZE; j++) {
-					if (i * NGRAMSIZE + j < length) {
-						char c = array[i * NGRAMSIZE + j];
-						gram.append(c);
-					}
+		int length = src.length();
+		int[] hashes = buffers.get();
+		int count = 0;
+		int hash = 0;
+		int size = 0;
+		for (int i = 0; i < length; i++) {
+			char c = src.charAt(i);
+			if (isSeparator(c)) {
+				if (size > 0) {
+					hashes = add(hashes, count++, hash);
+					hash = 0;
+					size = 0;
 				}
-				table.put("" + gram.toString().hashCode(), "");
+				continue;
+			}
+			hash = 31 * hash + c;
+			if (++size == NGRAMSIZE) {
+				hashes = add(hashes, count++, hash);
+				hash = 0;
+				size = 0;
 			}
 		}
+		if (size > 0) {
+			hashes = add(hashes, count++, hash);
+		}
+		return distinct(hashes, count);
+	}
 
-		Iterator<String> keys = table.keySet().iterator();
-		int[] result = new int[table.size()];
-		int idx = 0;
-		while (keys.hasNext()) {
-			result[idx++] = Integer.parseInt(keys.next());
+	/**
+	 * Returns the first {@code count} values of {@code hashes} sorted and
+	 * without repetitions. Sorts {@code hashes} in place.
+	 */
+	static int[] distinct(int[] hashes, int count) {
+		if (count == 0) {
+			return new int[0];
 		}
-		return result;
+		Arrays.sort(hashes, 0, count);
+		int unique = 1;
+		for (int i = 1; i < count; i++) {
+			if (hashes[i] != hashes[unique - 1]) {
+				hashes[unique++] = hashes[i];
+			}
+		}
+		return Arrays.copyOf(hashes, unique);
+	}
+
+	private static int[] add(int[] hashes, int position, int hash) {
+		if (position == hashes.length) {
+			hashes = Arrays.copyOf(hashes, position * 2);
+			buffers.set(hashes);
+		}
+		hashes[position] = hash;
+		return hashes;
+	}
+
+	private static boolean isSeparator(char c) {
+		if (c < 128) {
+			return ASCII_SEPARATORS[c];
+		}
+		return SEPARATORS.indexOf(c) != -1;
 	}
 
 	public static List<String> buildWordList(String src, String separator) {
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable, memory-mapped file with the posting lists of one language.
+ * <p>
+ * Layout: a 24 bytes header (magic, version, term count, reserved, directory
+ * offset), the posting lists encoded as varint deltas of ascending ordinals,
+ * and a directory sorted by n-gram hash with one entry (hash, size, offset)
+ * per term.
+ */
+class PostingsFile {
+
+	static final int MAGIC = 0x53464E47;
+	static final int VERSION = 1;
+	static final int HEADER = 24;
+	static final int ENTRY = 16;
+
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	private File file;
+	private long first;
+	private long last;
+	private int terms;
+	private long directory;
+	private MappedByteBuffer[] chunks;
+
+	PostingsFile(File file, long first, long last) throws IOException {
+		this.file = file;
+		this.first = first;
+		this.last = last;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			int count = (int) ((size + CHUNK_MASK) >>> CHUNK_BITS);
+			chunks = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = (long) i << CHUNK_BITS;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_MASK + 1, size - start));
+			}
+			if (size < HEADER || getInt(0) != MAGIC || getInt(4) != VERSION) {
+				MessageFormat mf = new MessageFormat(Messages.getString("PostingsFile.0"));
+				throw new IOException(mf.format(new String[] { file.getName() }));
+			}
+			terms = getInt(8);
+			directory = getLong(16);
+		}
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	long getFirst() {
+		return first;
+	}
+
+	long getLast() {
+		return last;
+	}
+
+	long length() {
+		return file.length();
+	}
+
+	int terms() {
+		return terms;
+	}
+
+	int hashAt(int term) {
+		return getInt(directory + (long) term * ENTRY);
+	}
+
+	int[] postingsAt(int term) {
+		long entry = directory + (long) term * ENTRY;
+		int size = getInt(entry + 4);
+		long position = getLong(entry + 8);
+		int[] result = new int[size];
+		int value = 0;
+		for (int i = 0; i < size; i++) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = getByte(position++);
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			value += delta;
+			result[i] = value;
+		}
+		return result;
+	}
+
+	int[] getPostings(int ngram) {
+		int low = 0;
+		int high = terms - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int hash = hashAt(mid);
+			if (hash < ngram) {
+				low = mid + 1;
+			} else if (hash > ngram) {
+				high = mid - 1;
+			} else {
+				return postingsAt(mid);
+			}
+		}
+		return new int[0];
+	}
+
+	private byte getByte(long position) {
+		return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK));
+	}
+
+	private int getInt(long position) {
+		int result = 0;
+		for (int i = 0; i < 4; i++) {
+			result = (result << 8) | (getByte(position + i) & 0xFF);
+		}
+		return result;
+	}
+
+	private long getLong(long position) {
+		return ((long) getInt(position) << 32) | (getInt(position + 4) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Writes a new file from pairs packed as {@code (ngram << 32) | ordinal}.
+	 * The array is sorted and duplicates are skipped.
+	 */
+	static void write(File target, long[] pairs, int size) throws IOException {
+		Arrays.sort(pairs, 0, size);
+		try (Writer writer = new Writer(target)) {
+			for (int i = 0; i < size; i++) {
+				if (i > 0 && pairs[i] == pairs[i - 1]) {
+					continue;
+				}
+				writer.add((int) (pairs[i] >> 32), (int) pairs[i]);
+			}
+		}
+	}
+
+	/**
+	 * Writes a new file with the union of the posting lists stored in
+	 * {@code sources}.
+	 */
+	static void merge(File target, List<PostingsFile> sources) throws IOException {
+		int count = sources.size();
+		int[] positions = new int[count];
+		try (Writer writer = new Writer(target)) {
+			while (true) {
+				boolean found = false;
+				int hash = 0;
+				for (int i = 0; i < count; i++) {
+					PostingsFile source = sources.get(i);
+					if (positions[i] < source.terms()) {
+						int h = source.hashAt(positions[i]);
+						if (!found || h < hash) {
+							hash = h;
+							found = true;
+						}
+					}
+				}
+				if (!found) {
+					break;
+				}
+				int[][] lists = new int[count][];
+				int lengths = 0;
+				for (int i = 0; i < count; i++) {
+					PostingsFile source = sources.get(i);
+					if (positions[i] < source.terms() && source.hashAt(positions[i]) == hash) {
+						lists[i] = source.postingsAt(positions[i]);
+						lengths += lists[i].length;
+						positions[i]++;
+					}
+				}
+				int[] union = new int[lengths];
+				int size = 0;
+				for (int i = 0; i < count; i++) {
+					if (lists[i] != null) {
+						System.arraycopy(lists[i], 0, union, size, lists[i].length);
+						size += lists[i].length;
+					}
+				}
+				Arrays.sort(union);
+				for (int i = 0; i < size; i++) {
+					if (i == 0 || union[i] != union[i - 1]) {
+						writer.add(hash, union[i]);
+					}
+				}
+			}
+		}
+	}
+
+	private static class Writer implements AutoCloseable {
+
+		private File target;
+		private File temp;
+		private OutputStream out;
+		private long position;
+		private int terms;
+		private ByteBuffer directory;
+		private int currentHash;
+		private int currentSize;
+		private long currentOffset;
+		private int lastOrdinal;
+
+		Writer(File target) throws IOException {
+			this.target = target;
+			temp = new File(target.getParentFile(), target.getName() + ".tmp");
+			out = new BufferedOutputStream(Files.newOutputStream(temp.toPath()), 1 << 16);
+			out.write(new byte[HEADER]);
+			position = HEADER;
+			directory = ByteBuffer.allocate(ENTRY * 1024);
+		}
+
+		void add(int hash, int ordinal) throws IOException {
+			if (currentSize == 0 || hash != currentHash) {
+				endTerm();
+				currentHash = hash;
+				currentOffset = position;
+				lastOrdinal = 0;
+			}
+			int delta = ordinal - lastOrdinal;
+			while ((delta & ~0x7F) != 0) {
+				out.write((delta & 0x7F) | 0x80);
+				delta >>>= 7;
+				position++;
+			}
+			out.write(delta);
+			position++;
+			lastOrdinal = ordinal;
+			currentSize++;
+		}
+
+		private void endTerm() {
+			if (currentSize == 0) {
+				return;
+			}
+			if (directory.remaining() < ENTRY) {
+				ByteBuffer larger = ByteBuffer.allocate(directory.capacity() * 2);
+				directory.flip();
+				larger.put(directory);
+				directory = larger;
+			}
+			directory.putInt(currentHash);
+			directory.putInt(currentSize);
+			directory.putLong(currentOffset);
+			terms++;
+			currentSize = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			endTerm();
+			long directoryOffset = position;
+			out.write(directory.array(), 0, directory.position());
+			out.close();
+			try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+				raf.writeInt(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeInt(terms);
+				raf.writeInt(0);
+				raf.writeLong(directoryOffset);
+			}
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+}
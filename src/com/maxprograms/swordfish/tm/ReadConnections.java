@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Small pool of read-only connections to a memory in WAL mode. Readers see
+ * the last committed state and do not wait for the writer connection, so
+ * searches from several threads run in parallel with imports and
+ * confirmations. Connections are opened when first needed.
+ */
+class ReadConnections {
+
+	// ms that a reader waits for a lock, only used when WAL is not available
+	private static final int BUSY_TIMEOUT = 10000;
+
+	private String url;
+	private int size;
+	private BlockingQueue<Reader> idle;
+	private List<Reader> all;
+
+	/**
+	 * A read-only connection with its prepared statements.
+	 */
+	static class Reader {
+
+		private Connection conn;
+		private Map<String, PreparedStatement> statements;
+
+		Reader(Connection conn) {
+			this.conn = conn;
+			statements = new HashMap<>();
+		}
+
+		/**
+		 * Returns the statement for {@code sql}, prepared on first use.
+		 */
+		PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement stmt = statements.get(sql);
+			if (stmt == null) {
+				stmt = conn.prepareStatement(sql);
+				statements.put(sql, stmt);
+			}
+			return stmt;
+		}
+
+		Connection getConnection() {
+			return conn;
+		}
+
+		void close() throws SQLException {
+			Iterator<PreparedStatement> it = statements.values().iterator();
+			while (it.hasNext()) {
+				it.next().close();
+			}
+			conn.close();
+		}
+	}
+
+	ReadConnections(String url, int size) {
+		this.url = url;
+		this.size = size;
+		idle = new ArrayBlockingQueue<>(size);
+		all = new Vector<>();
+	}
+
+	/**
+	 * Returns an idle connection, opening a new one if the pool is not full or
+	 * waiting for one otherwise. Give it back with {@link #release(Reader)}.
+	 */
+	Reader acquire() throws SQLException {
+		Reader reader = idle.poll();
+		if (reader != null) {
+			return reader;
+		}
+		synchronized (this) {
+			if (all.size() < size) {
+				reader = open();
+				all.add(reader);
+				return reader;
+			}
+		}
+		try {
+			return idle.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(e);
+		}
+	}
+
+	void release(Reader reader) {
+		idle.offer(reader);
+	}
+
+	synchronized void close() throws SQLException {
+		for (int i = 0; i < all.size(); i++) {
+			all.get(i).close();
+		}
+		all.clear();
+		idle.clear();
+	}
+
+	private Reader open() throws SQLException {
+		SQLiteConfig config = new SQLiteConfig();
+		config.setReadOnly(true);
+		config.setBusyTimeout(BUSY_TIMEOUT);
+		Connection conn = config.createConnection(url);
+		RegexpFunction.register(conn);
+		return new Reader(conn);
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.sqlite.Function;
+
+/**
+ * SQLite {@code REGEXP} function. {@code value REGEXP expression} finds the
+ * expression anywhere in the value; the call form
+ * {@code REGEXP(expression, value, flags)} also accepts {@link Pattern} flags,
+ * usually built with {@link #flags(boolean, boolean)}.
+ * <p>
+ * Compiled patterns are shared by all connections in a small LRU cache and
+ * each thread reuses the {@link Matcher} of the last pattern it evaluated, so
+ * a query compiles its expression once instead of once per row.
+ */
+public class RegexpFunction {
+
+	private static final int CACHE_SIZE = 64;
+
+	private static final Map<String, Pattern> cache = Collections
+			.synchronizedMap(new LinkedHashMap<String, Pattern>(CACHE_SIZE, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+					return size() > CACHE_SIZE;
+				}
+			});
+
+	private static final ThreadLocal<Matcher> matchers = new ThreadLocal<>();
+
+	private RegexpFunction() {
+		// private for security
+	}
+
+	private static class Regexp extends Function {
+
+		@Override
+		protected void xFunc() throws SQLException {
+			int count = args();
+			if (count != 2 && count != 3) {
+				error("wrong number of arguments to function REGEXP()");
+				return;
+			}
+			String expression = value_text(0);
+			if (expression == null) {
+				result();
+				return;
+			}
+			String value = value_text(1);
+			if (value == null) {
+				value = "";
+			}
+			int flags = count == 3 ? value_int(2) : 0;
+			try {
+				Matcher matcher = matcher(expression, flags, value);
+				boolean found = matcher.find();
+				// do not keep the row text alive
+				matcher.reset("");
+				result(found ? 1 : 0);
+			} catch (PatternSyntaxException e) {
+				error(e.getMessage());
+			}
+		}
+	}
+
+	public static void register(Connection conn) throws SQLException {
+		Function.create(conn, "REGEXP", new Regexp(), Function.FLAG_DETERMINISTIC);
+	}
+
+	/**
+	 * Flags for searches selected by the user. Case insensitive searches fold
+	 * case with Unicode rules; {@code unicode} also makes the predefined classes
+	 * like {@code \w} and {@code \b} follow Unicode instead of ASCII.
+	 */
+	public static int flags(boolean caseSensitive, boolean unicode) {
+		int flags = 0;
+		if (!caseSensitive) {
+			flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+		}
+		if (unicode) {
+			flags |= Pattern.UNICODE_CHARACTER_CLASS;
+		}
+		return flags;
+	}
+
+	/**
+	 * Returns the compiled pattern for {@code expression}, from the cache when
+	 * possible.
+	 */
+	public static Pattern compile(String expression, int flags) throws PatternSyntaxException {
+		String key = flags + ":" + expression;
+		Pattern pattern = cache.get(key);
+		if (pattern == null) {
+			pattern = Pattern.compile(expression, flags);
+			cache.put(key, pattern);
+		}
+		return pattern;
+	}
+
+	/**
+	 * Returns a matcher for {@code text}, reusing the one this thread used last
+	 * when it has the same pattern.
+	 */
+	private static Matcher matcher(String expression, int flags, CharSequence text) throws PatternSyntaxException {
+		Pattern pattern = compile(expression, flags);
+		Matcher matcher = matchers.get();
+		if (matcher != null && matcher.pattern() == pattern) {
+			return matcher.reset(text);
+		}
+		matcher = pattern.matcher(text);
+		matchers.set(matcher);
+		return matcher;
+	}
+}
@@ -21,6 +21,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -35,6 +36,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -136,6 +138,13 @@ public class RemoteDatabase implements ITmEngine {
 
     @Override
     public int storeTMX(String tmxFile, String project, String customer, String subject) throws IOException, URISyntaxException {
+        return storeTMX(tmxFile, project, customer, subject, false);
+    }
+
+    @Override
+    public int storeTMX(String tmxFile, String project, String customer, String subject, boolean resume)
+            throws IOException, URISyntaxException {
+        // the server receives a new copy of the file, there is nothing to resume
         File zipFile = zip(tmxFile);
         String uploaded = upload(zipFile);
         JSONObject params = new JSONObject();
@@ -216,6 +225,12 @@ public class RemoteDatabase implements ITmEngine {
     @Override
     public void exportMemory(String tmxfile, Set<String> langs, String srcLang)
             throws IOException, SAXException, ParserConfigurationException, JSONException, URISyntaxException {
+        exportMemory(tmxfile, langs, srcLang, new JSONObject());
+    }
+
+    @Override
+    public void exportMemory(String tmxfile, Set<String> langs, String srcLang, JSONObject options)
+            throws IOException, SAXException, ParserConfigurationException, JSONException, URISyntaxException {
         JSONObject params = new JSONObject();
         params.put("command", "exportMemory");
         params.put("memory", dbname);
@@ -228,11 +243,17 @@ public class RemoteDatabase implements ITmEngine {
             }
             params.put("languages", array);
         }
+        String[] filters = { "project", "from", "to" };
+        for (String filter : filters) {
+            if (options.has(filter)) {
+                params.put(filter, options.getString(filter));
+            }
+        }
         JSONObject json = postMessage("/memories", params);
-        download(tmxfile, json.getString("file"));
+        download(tmxfile, json.getString("file"), options.has("compress") && options.getBoolean("compress"));
     }
 
-    private void download(String tmxFile, String file) throws IOException, URISyntaxException {
+    private void download(String tmxFile, String file, boolean compress) throws IOException, URISyntaxException {
         URL serverUrl = new URI(server + "/download?session=" + URLEncoder.encode(ticket, StandardCharsets.UTF_8)
                 + "&file=" + URLEncoder.encode(file, StandardCharsets.UTF_8)).toURL();
         HttpsURLConnection connection = (HttpsURLConnection) serverUrl.openConnection();
@@ -241,7 +262,8 @@ public class RemoteDatabase implements ITmEngine {
         byte[] bytes = new byte[2048];
         int read = -1;
         try (InputStream input = connection.getInputStream()) {
-            try (FileOutputStream out = new FileOutputStream(tmxFile)) {
+            OutputStream stream = new FileOutputStream(tmxFile);
+            try (OutputStream out = compress ? new GZIPOutputStream(stream) : stream) {
                 while ((read = input.read(bytes)) != -1) {
                     out.write(bytes, 0, read);
                 }
@@ -308,6 +330,13 @@ public class RemoteDatabase implements ITmEngine {
     @Override
     public List<Match> searchTranslation(String searchStr, String srcLang, String tgtLang, int similarity,
             boolean caseSensitive) throws IOException, SAXException, ParserConfigurationException, URISyntaxException {
+        return searchTranslation(searchStr, srcLang, tgtLang, similarity, caseSensitive, 0);
+    }
+
+    @Override
+    public List<Match> searchTranslation(String searchStr, String srcLang, String tgtLang, int similarity,
+            boolean caseSensitive, int limit)
+            throws IOException, SAXException, ParserConfigurationException, URISyntaxException {
         JSONObject params = new JSONObject();
         params.put("command", "searchTranslation");
         params.put("memory", dbname);
@@ -316,10 +345,17 @@ public class RemoteDatabase implements ITmEngine {
         params.put("tgtLang", tgtLang);
         params.put("similarity", similarity);
         params.put("caseSensitive", caseSensitive);
+        if (limit > 0) {
+            params.put("limit", limit);
+        }
         JSONObject json = postMessage("/memories", params);
         JSONArray array = json.getJSONArray("matches");
         List<Match> matches = new Vector<>();
         for (int i = 0; i < array.length(); i++) {
+            if (limit > 0 && matches.size() == limit) {
+                // older servers ignore the limit
+                break;
+            }
             matches.add(toMatch(array.getJSONObject(i)));
         }
         return matches;
@@ -347,6 +383,13 @@ public class RemoteDatabase implements ITmEngine {
     @Override
     public List<Element> concordanceSearch(String searchStr, String srcLang, int limit, boolean isRegexp,
             boolean caseSensitive) throws IOException, SAXException, ParserConfigurationException, URISyntaxException {
+        return concordanceSearch(searchStr, srcLang, limit, isRegexp, caseSensitive, false);
+    }
+
+    @Override
+    public List<Element> concordanceSearch(String searchStr, String srcLang, int limit, boolean isRegexp,
+            boolean caseSensitive, boolean unicode)
+            throws IOException, SAXException, ParserConfigurationException, URISyntaxException {
         JSONObject params = new JSONObject();
         params.put("command", "concordanceSearch");
         params.put("memory", dbname);
@@ -355,6 +398,9 @@ public class RemoteDatabase implements ITmEngine {
         params.put("limit", limit);
         params.put("isRegexp", isRegexp);
         params.put("caseSensitive", caseSensitive);
+        if (unicode) {
+            params.put("unicode", unicode);
+        }
         JSONObject json = postMessage("/memories", params);
         JSONArray array = json.getJSONArray("tus");
         List<Element> tus = new Vector<>();
@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffers for {@link MatchQuality#similarity(String, String)}.
+ * Instances are not thread safe; each thread keeps its own.
+ * <p>
+ * The longest common substring is found with bit vectors over the positions
+ * of the shorter text: row {@code i} of level {@code p} has bit {@code j} set
+ * when the {@code 2^p} characters ending at {@code a[i]} and {@code b[j]} are
+ * equal. Levels are built by doubling and the exact length is then found by
+ * binary lifting, so each search costs {@code O(m * n/64 * log n)} instead of
+ * {@code O(m * n)}. Very long texts fall back to a single row of the classic
+ * dynamic programming table.
+ */
+class SimilarityKernel {
+
+	// longest bit vector tables kept per thread, in longs
+	private static final int MAX_TABLE = 1 << 18;
+
+	private char[] a = new char[256];
+	private char[] b = new char[256];
+	private int aLength;
+	private int bLength;
+
+	private char[] keys = new char[512];
+	private int[] slots = new int[512];
+	private long[] masks = new long[1024];
+	private int maskWords;
+
+	private long[] levels = new long[4096];
+	private long[] current = new long[512];
+	private long[] next = new long[512];
+	private int[] row = new int[257];
+
+	// last common substring: a[end - length, end) and b[start, start + length)
+	private int length;
+	private int end;
+	private int start;
+
+	int similarity(String x, String y) {
+		int xStart = trimStart(x);
+		int xLength = trimEnd(x, xStart) - xStart;
+		int yStart = trimStart(y);
+		int yLength = trimEnd(y, yStart) - yStart;
+		int longest = Math.max(xLength, yLength);
+		if (longest == 0) {
+			return 0;
+		}
+		// a is the longest string
+		if (xLength == longest) {
+			load(x, xStart, xLength, y, yStart, yLength);
+		} else {
+			load(y, yStart, yLength, x, xStart, xLength);
+		}
+		int minimum = longest * MatchQuality.PENALTY / 100;
+		int count = -1;
+		lcs();
+		while (length > minimum && !isBlank(a, end - length, end)) {
+			count++;
+			System.arraycopy(a, end, a, end - length, aLength - end);
+			aLength -= length;
+			System.arraycopy(b, start + length, b, start, bLength - start - length);
+			bLength -= length;
+			lcs();
+		}
+		int result = 100 * (longest - aLength) / longest - count * MatchQuality.PENALTY;
+		return Math.max(result, 0);
+	}
+
+	private void load(String x, int xStart, int xLength, String y, int yStart, int yLength) {
+		if (a.length < xLength) {
+			a = new char[xLength];
+		}
+		if (b.length < yLength) {
+			b = new char[yLength];
+		}
+		x.getChars(xStart, xStart + xLength, a, 0);
+		y.getChars(yStart, yStart + yLength, b, 0);
+		aLength = xLength;
+		bLength = yLength;
+	}
+
+	private void lcs() {
+		length = 0;
+		if (aLength == 0 || bLength == 0) {
+			return;
+		}
+		int words = (bLength + 63) >>> 6;
+		int levelCount = 32 - Integer.numberOfLeadingZeros(Math.min(aLength, bLength));
+		long size = (long) aLength * words * levelCount;
+		if (size > MAX_TABLE) {
+			dynamic();
+		} else {
+			bitParallel(words, levelCount);
+		}
+	}
+
+	private void bitParallel(int words, int levelCount) {
+		buildMasks(words);
+		int stride = aLength * words;
+		if (levels.length < stride * levelCount) {
+			levels = new long[stride * levelCount];
+		}
+		if (current.length < stride) {
+			current = new long[stride];
+			next = new long[stride];
+		}
+		// level 0: single characters
+		boolean found = false;
+		for (int i = 0; i < aLength; i++) {
+			int mask = lookup(a[i]);
+			if (mask < 0) {
+				Arrays.fill(levels, i * words, (i + 1) * words, 0l);
+			} else {
+				System.arraycopy(masks, mask, levels, i * words, words);
+				found = true;
+			}
+		}
+		if (!found) {
+			return;
+		}
+		// level p + 1 joins two adjacent runs of level p
+		int top = 0;
+		while (top + 1 < levelCount) {
+			int shift = 1 << top;
+			int base = top * stride;
+			int target = base + stride;
+			boolean any = false;
+			for (int i = 0; i < aLength; i++) {
+				int offset = target + i * words;
+				if (i < 2 * shift - 1) {
+					Arrays.fill(levels, offset, offset + words, 0l);
+					continue;
+				}
+				int own = base + i * words;
+				int previous = base + (i - shift) * words;
+				for (int w = 0; w < words; w++) {
+					long value = levels[own + w] & shifted(levels, previous, w, shift);
+					levels[offset + w] = value;
+					any |= value != 0;
+				}
+			}
+			if (!any) {
+				break;
+			}
+			top++;
+		}
+		// extend the longest power of two one level at a time
+		System.arraycopy(levels, top * stride, current, 0, stride);
+		int common = 1 << top;
+		for (int p = top - 1; p >= 0; p--) {
+			int base = p * stride;
+			boolean any = false;
+			for (int i = 0; i < aLength; i++) {
+				int offset = i * words;
+				if (i < common) {
+					Arrays.fill(next, offset, offset + words, 0l);
+					continue;
+				}
+				int previous = base + (i - common) * words;
+				for (int w = 0; w < words; w++) {
+					long value = current[offset + w] & shifted(levels, previous, w, common);
+					next[offset + w] = value;
+					any |= value != 0;
+				}
+			}
+			if (any) {
+				long[] swap = current;
+				current = next;
+				next = swap;
+				common += 1 << p;
+			}
+		}
+		// first row of a that ends a common substring, first position in b
+		for (int i = common - 1; i < aLength; i++) {
+			int offset = i * words;
+			for (int w = 0; w < words; w++) {
+				long value = current[offset + w];
+				if (value != 0) {
+					length = common;
+					end = i + 1;
+					start = (w << 6) + Long.numberOfTrailingZeros(value) - common + 1;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns word {@code w} of the bit vector stored at {@code offset} after
+	 * shifting it {@code shift} positions towards higher indexes.
+	 */
+	private static long shifted(long[] data, int offset, int w, int shift) {
+		int source = w - (shift >>> 6);
+		if (source < 0) {
+			return 0l;
+		}
+		int bits = shift & 63;
+		long value = data[offset + source] << bits;
+		if (bits != 0 && source > 0) {
+			value |= data[offset + source - 1] >>> (64 - bits);
+		}
+		return value;
+	}
+
+	private void buildMasks(int words) {
+		int capacity = Integer.highestOneBit(bLength) << 2;
+		if (keys.length < capacity) {
+			keys = new char[capacity];
+			slots = new int[capacity];
+		} else {
+			capacity = keys.length;
+		}
+		Arrays.fill(slots, 0, capacity, 0);
+		int used = 0;
+		for (int j = 0; j < bLength; j++) {
+			char c = b[j];
+			int h = hash(c, capacity);
+			while (slots[h] != 0 && keys[h] != c) {
+				h = (h + 1) & (capacity - 1);
+			}
+			if (slots[h] == 0) {
+				int offset = used * words;
+				if (masks.length < offset + words) {
+					masks = Arrays.copyOf(masks, Math.max(masks.length * 2, offset + words));
+				}
+				Arrays.fill(masks, offset, offset + words, 0l);
+				keys[h] = c;
+				slots[h] = ++used;
+			}
+			masks[(slots[h] - 1) * words + (j >>> 6)] |= 1l << j;
+		}
+		maskWords = words;
+	}
+
+	private int lookup(char c) {
+		int capacity = keys.length;
+		int h = hash(c, capacity);
+		while (slots[h] != 0) {
+			if (keys[h] == c) {
+				return (slots[h] - 1) * maskWords;
+			}
+			h = (h + 1) & (capacity - 1);
+		}
+		return -1;
+	}
+
+	private static int hash(char c, int capacity) {
+		return (c * 0x9E3779B1) >>> 16 & (capacity - 1);
+	}
+
+	private void dynamic() {
+		if (row.length < bLength + 1) {
+			row = new int[bLength + 1];
+		}
+		Arrays.fill(row, 0, bLength + 1, 0);
+		int max = 0;
+		int mx = 0;
+		for (int i = 1; i <= aLength; i++) {
+			char c = a[i - 1];
+			for (int j = bLength; j >= 1; j--) {
+				if (c == b[j - 1]) {
+					int value = row[j - 1] + 1;
+					row[j] = value;
+					if (value > max) {
+						max = value;
+						mx = i;
+					}
+				} else {
+					row[j] = 0;
+				}
+			}
+		}
+		if (max == 0) {
+			return;
+		}
+		length = max;
+		end = mx;
+		start = indexOf(b, bLength, a, mx - max, max);
+	}
+
+	private static int indexOf(char[] text, int textLength, char[] pattern, int offset, int count) {
+		for (int i = 0; i + count <= textLength; i++) {
+			int k = 0;
+			while (k < count && text[i + k] == pattern[offset + k]) {
+				k++;
+			}
+			if (k == count) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isBlank(char[] text, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (text[i] > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int trimStart(String s) {
+		int i = 0;
+		while (i < s.length() && s.charAt(i) <= ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	private static int trimEnd(String s, int from) {
+		int i = s.length();
+		while (i > from && s.charAt(i - 1) <= ' ') {
+			i--;
+		}
+		return i;
+	}
+}
@@ -11,9 +11,13 @@
  *******************************************************************************/
 package com.maxprograms.swordfish.tm;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.net.URISyntaxException;
@@ -27,55 +31,75 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.MessageFormat;
 import java.util.Collections;
-import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableSet;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.mapdb.Fun;
-import org.mapdb.Fun.Tuple2;
-import org.sqlite.Function;
 import org.xml.sax.SAXException;
 
 import com.maxprograms.languages.LanguageUtils;
 import com.maxprograms.swordfish.Constants;
 import com.maxprograms.swordfish.TmsServer;
-import com.maxprograms.swordfish.tmx.TMXReader;
+import com.maxprograms.swordfish.tm.ReadConnections.Reader;
 import com.maxprograms.xml.Element;
-import com.maxprograms.xml.Indenter;
 import com.maxprograms.xml.XMLUtils;
 
 public class SqliteDatabase implements ITmEngine {
 
     Logger logger = System.getLogger(SqliteDatabase.class.getName());
 
+    private static final int CANDIDATES_CHUNK = 256;
+    private static final int EXPORT_BUFFER = 1 << 16;
+    // page cache used while loading, in KiB
+    private static final int BULK_CACHE = 1 << 16;
+    private static final String IMPORT_CHECKPOINT = "import.json";
+    private static final int READERS = 4;
+
     private String dbname;
     private String creationDate;
     private File databaseFolder;
     private File database;
+    // writer, shared by all request threads; every use holds its lock
     private Connection conn;
+    private ReadConnections readers;
+    // TUs changed since the last commit, that readers may cache with their old data
+    private Set<String> uncommitted;
     private PreparedStatement storeTUV;
     private PreparedStatement searchTUV;
     private PreparedStatement deleteTUV;
+    private PreparedStatement getOrdinal;
+    private PreparedStatement insertOrdinal;
+    private PreparedStatement bulkInsert;
+    private Map<String, PreparedStatement> statements;
+    private boolean bulk;
+    private int synchronous;
+    private int cacheSize;
     private TuDatabase tuDb;
-    private FuzzyIndex fuzzyIndex;
+    private NGramIndex ngramIndex;
+    private Set<String> checkedLanguages;
+    private Map<String, Analyzer> analyzers;
     private long next;
     private String currProject;
     private String currSubject;
     private String currCustomer;
-    private FileOutputStream output;
 
-    private TMXReader reader;
+    private ImportPipeline pipeline;
+    private TuCache tuCache;
 
     public SqliteDatabase(String dbname, String workFolder) throws IOException, SQLException {
         this.dbname = dbname;
@@ -93,35 +117,43 @@ public class SqliteDatabase implements ITmEngine {
         database = new File(databaseFolder, "database.db");
         boolean sqliteNeedsCreation = !database.exists();
         DriverManager.registerDriver(new org.sqlite.JDBC());
-        conn = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath().replace('\\', '/'));
+        String url = "jdbc:sqlite:" + database.getAbsolutePath().replace('\\', '/');
+        conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            // readers see the last commit without waiting for the writer
+            stmt.execute("PRAGMA journal_mode = WAL");
+        }
         conn.setAutoCommit(false);
-        Function.create(conn, "REGEXP", new Function() {
-            @Override
-            protected void xFunc() throws SQLException {
-                String expression = value_text(0);
-                String value = value_text(1);
-                if (value == null)
-                    value = "";
-
-                Pattern pattern = Pattern.compile(expression);
-                result(pattern.matcher(value).find() ? 1 : 0);
-            }
-        });
+        RegexpFunction.register(conn);
         if (sqliteNeedsCreation) {
             createTables();
         }
+        createOrdinals();
+        createAnalyzers();
+        createFullText();
         storeTUV = conn.prepareStatement("INSERT INTO tuv (tuid, lang, seg, puretext, textlength) VALUES (?,?,?,?,?)");
         searchTUV = conn.prepareStatement("SELECT textlength FROM tuv WHERE tuid=? AND lang=?");
         deleteTUV = conn.prepareStatement("DELETE FROM tuv WHERE tuid=? AND lang=?");
+        getOrdinal = conn.prepareStatement("SELECT id FROM tuids WHERE tuid=?");
+        insertOrdinal = conn.prepareStatement("INSERT INTO tuids (tuid) VALUES (?)");
+        statements = new HashMap<>();
+        readers = new ReadConnections(url, READERS);
+        uncommitted = new HashSet<>();
+        tuCache = new TuCache(getCacheSize());
         try {
             tuDb = new TuDatabase(databaseFolder);
+            if (tuDb.hasLegacyData()) {
+                migrateTuData();
+            }
         } catch (Exception e) {
             logger.log(Level.ERROR, e.getMessage(), e);
             MessageFormat mf = new MessageFormat(Messages.getString("SqliteDatabase.1"));
             throw new IOException(mf.format(new String[] { dbname }));
         }
         try {
-            fuzzyIndex = new FuzzyIndex(databaseFolder);
+            ngramIndex = new NGramIndex(databaseFolder);
+            checkedLanguages = Collections.synchronizedSet(new TreeSet<>());
+            analyzers = new ConcurrentHashMap<>();
         } catch (Exception e) {
             logger.log(Level.ERROR, e.getMessage(), e);
             MessageFormat mf = new MessageFormat(Messages.getString("SqliteDatabase.2"));
@@ -145,6 +177,344 @@ public class SqliteDatabase implements ITmEngine {
         conn.commit();
     }
 
+    private void createOrdinals() throws SQLException {
+        String sql = """
+                CREATE TABLE IF NOT EXISTS tuids (
+                id INTEGER PRIMARY KEY,
+                tuid VARCHAR(256) NOT NULL UNIQUE
+                );""";
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+        conn.commit();
+    }
+
+    private void createAnalyzers() throws SQLException {
+        // analyzer that produced the n-grams of each indexed language
+        String sql = """
+                CREATE TABLE IF NOT EXISTS analyzers (
+                lang VARCHAR(15) PRIMARY KEY,
+                name VARCHAR(30) NOT NULL
+                );""";
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+        conn.commit();
+    }
+
+    private void createFullText() throws SQLException {
+        // trigram index of tuv.puretext for concordance searches, kept in sync by triggers
+        try (Statement stmt = conn.createStatement()) {
+            if (!exists(stmt, "table", "tuv_fts")) {
+                stmt.execute(
+                        "CREATE VIRTUAL TABLE tuv_fts USING fts5(puretext, content='tuv', content_rowid='rowid', tokenize='trigram')");
+            } else if (exists(stmt, "trigger", "tuv_fts_insert")) {
+                return;
+            }
+            // new index or a bulk load that did not finish
+            createFullTextTriggers(stmt);
+            stmt.execute("INSERT INTO tuv_fts (tuv_fts) VALUES ('rebuild')");
+        }
+        conn.commit();
+    }
+
+    private static boolean exists(Statement stmt, String type, String name) throws SQLException {
+        try (ResultSet rs = stmt
+                .executeQuery("SELECT name FROM sqlite_master WHERE type='" + type + "' AND name='" + name + "'")) {
+            return rs.next();
+        }
+    }
+
+    private static void createFullTextTriggers(Statement stmt) throws SQLException {
+        stmt.execute("""
+                CREATE TRIGGER tuv_fts_insert AFTER INSERT ON tuv BEGIN
+                INSERT INTO tuv_fts (rowid, puretext) VALUES (new.rowid, new.puretext);
+                END;""");
+        stmt.execute("""
+                CREATE TRIGGER tuv_fts_delete AFTER DELETE ON tuv BEGIN
+                INSERT INTO tuv_fts (tuv_fts, rowid, puretext) VALUES ('delete', old.rowid, old.puretext);
+                END;""");
+        stmt.execute("""
+                CREATE TRIGGER tuv_fts_update AFTER UPDATE OF puretext ON tuv BEGIN
+                INSERT INTO tuv_fts (tuv_fts, rowid, puretext) VALUES ('delete', old.rowid, old.puretext);
+                INSERT INTO tuv_fts (rowid, puretext) VALUES (new.rowid, new.puretext);
+                END;""");
+    }
+
+    /**
+     * Prepares an empty memory for a large import: rows are inserted in
+     * batches without the full text triggers, SQLite does not wait for the disk
+     * and the n-gram postings stay in memory until they are large enough to be
+     * written in one sorted file. {@link #endBulkLoad()} restores everything.
+     */
+    private void startBulkLoad() throws SQLException {
+        synchronized (conn) {
+            conn.commit();
+            // the safety level cannot be changed inside a transaction
+            conn.setAutoCommit(true);
+            try (Statement stmt = conn.createStatement()) {
+                try (ResultSet rs = stmt.executeQuery("PRAGMA synchronous")) {
+                    synchronous = rs.next() ? rs.getInt(1) : 2;
+                }
+                try (ResultSet rs = stmt.executeQuery("PRAGMA cache_size")) {
+                    cacheSize = rs.next() ? rs.getInt(1) : -2000;
+                }
+                stmt.execute("PRAGMA synchronous = OFF");
+                stmt.execute("PRAGMA cache_size = -" + BULK_CACHE);
+            }
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TRIGGER IF EXISTS tuv_fts_insert");
+                stmt.execute("DROP TRIGGER IF EXISTS tuv_fts_delete");
+                stmt.execute("DROP TRIGGER IF EXISTS tuv_fts_update");
+            }
+            conn.commit();
+            bulkInsert = conn.prepareStatement(
+                    "INSERT OR REPLACE INTO tuv (tuid, lang, seg, puretext, textlength) VALUES (?,?,?,?,?)");
+            bulk = true;
+        }
+    }
+
+    private void endBulkLoad() throws SQLException {
+        synchronized (conn) {
+            bulk = false;
+            bulkInsert.executeBatch();
+            bulkInsert.close();
+            bulkInsert = null;
+            try (Statement stmt = conn.createStatement()) {
+                createFullTextTriggers(stmt);
+                stmt.execute("INSERT INTO tuv_fts (tuv_fts) VALUES ('rebuild')");
+            }
+            conn.commit();
+            tuCache.clear();
+            conn.setAutoCommit(true);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA cache_size = " + cacheSize);
+                stmt.execute("PRAGMA synchronous = " + synchronous);
+            }
+            conn.setAutoCommit(false);
+        }
+    }
+
+    private int getOrdinal(String tuid) throws SQLException {
+        getOrdinal.setString(1, tuid);
+        try (ResultSet rs = getOrdinal.executeQuery()) {
+            if (rs.next()) {
+                return rs.getInt(1);
+            }
+        }
+        insertOrdinal.setString(1, tuid);
+        insertOrdinal.executeUpdate();
+        try (ResultSet rs = insertOrdinal.getGeneratedKeys()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Number of TUs kept in the cache of parsed TUs, from the optional
+     * {@code tuCacheSize} preference. 0 disables the cache.
+     */
+    private static int getCacheSize() {
+        try {
+            JSONObject preferences = TmsServer.getPreferences();
+            if (preferences.has("tuCacheSize")) {
+                return preferences.getInt("tuCacheSize");
+            }
+        } catch (IOException | JSONException e) {
+            // no preferences yet
+        }
+        return TuCache.DEFAULT_SIZE;
+    }
+
+    /**
+     * Returns the statement for {@code sql}, prepared on first use and kept until
+     * the database is closed. Callers must hold the lock on {@code conn}.
+     */
+    private PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null) {
+            stmt = conn.prepareStatement(sql);
+            statements.put(sql, stmt);
+        }
+        return stmt;
+    }
+
+    /**
+     * Returns the ordinal of {@code tuid}, or -1 if it has none.
+     */
+    private int findOrdinal(String tuid) throws SQLException {
+        synchronized (conn) {
+            getOrdinal.setString(1, tuid);
+            try (ResultSet rs = getOrdinal.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    private static int findOrdinal(Reader reader, String tuid) throws SQLException {
+        PreparedStatement stmt = reader.prepare("SELECT id FROM tuids WHERE tuid=?");
+        stmt.setString(1, tuid);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    private void migrateTuData() throws SQLException {
+        // headers of previous versions were keyed by tuid.hashCode()
+        List<String> tuids = new Vector<>();
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT DISTINCT tuid FROM tuv")) {
+                while (rs.next()) {
+                    tuids.add(rs.getString(1));
+                }
+            }
+        }
+        for (int i = 0; i < tuids.size(); i++) {
+            String tuid = tuids.get(i);
+            Element tu = tuDb.getLegacyTu(tuid);
+            if (tu != null) {
+                tuDb.store(getOrdinal(tuid), tu);
+            }
+        }
+        conn.commit();
+        tuDb.deleteLegacyData();
+        tuDb.commit();
+        tuDb.compact();
+    }
+
+    private NGramIndex getIndex(String lang) throws IOException, SQLException {
+        if (!checkedLanguages.contains(lang)) {
+            synchronized (conn) {
+                File legacy = new File(databaseFolder, "index_" + lang);
+                if (!checkedLanguages.contains(lang) && legacy.exists() && !ngramIndex.exists(lang)) {
+                    migrateIndex(lang);
+                }
+                checkedLanguages.add(lang);
+            }
+        }
+        return ngramIndex;
+    }
+
+    /**
+     * Returns the analyzer recorded for {@code lang}, recording one for a
+     * language without it. Such a language gets {@link Analyzers#WORDS} if it was
+     * indexed before analyzers were recorded, or the default for the language
+     * otherwise. Used when indexing.
+     */
+    private Analyzer getAnalyzer(String lang) throws IOException, SQLException {
+        Analyzer analyzer = analyzers.get(lang);
+        if (analyzer != null) {
+            return analyzer;
+        }
+        NGramIndex index = getIndex(lang);
+        synchronized (conn) {
+            analyzer = analyzers.get(lang);
+            if (analyzer == null) {
+                String name = getAnalyzerName(lang);
+                if (name == null) {
+                    name = index.exists(lang) ? Analyzers.WORDS : Analyzers.getDefault(lang);
+                    // committed with the first postings of the language
+                    try (PreparedStatement stmt = conn
+                            .prepareStatement("INSERT INTO analyzers (lang, name) VALUES (?,?)")) {
+                        stmt.setString(1, lang);
+                        stmt.setString(2, name);
+                        stmt.execute();
+                    }
+                }
+                analyzer = Analyzers.get(name);
+                analyzers.put(lang, analyzer);
+            }
+        }
+        return analyzer;
+    }
+
+    /**
+     * Same as {@link #getAnalyzer(String)} without recording anything, so that
+     * searches do not write to the database.
+     */
+    private Analyzer getSearchAnalyzer(String lang) throws IOException, SQLException {
+        Analyzer analyzer = analyzers.get(lang);
+        if (analyzer != null) {
+            return analyzer;
+        }
+        NGramIndex index = getIndex(lang);
+        synchronized (conn) {
+            analyzer = analyzers.get(lang);
+            if (analyzer != null) {
+                return analyzer;
+            }
+            String name = getAnalyzerName(lang);
+            if (name != null) {
+                analyzer = Analyzers.get(name);
+                analyzers.put(lang, analyzer);
+                return analyzer;
+            }
+            return Analyzers.get(index.exists(lang) ? Analyzers.WORDS : Analyzers.getDefault(lang));
+        }
+    }
+
+    private String getAnalyzerName(String lang) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT name FROM analyzers WHERE lang=?")) {
+            stmt.setString(1, lang);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString(1);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the analyzer to use for {@code lang}, which must not be indexed
+     * yet.
+     */
+    public void setAnalyzer(String lang, String name) throws IOException, SQLException {
+        Analyzer analyzer = Analyzers.get(name);
+        NGramIndex index = getIndex(lang);
+        synchronized (conn) {
+            if (index.exists(lang)) {
+                MessageFormat mf = new MessageFormat(Messages.getString("SqliteDatabase.4"));
+                throw new IOException(mf.format(new String[] { lang }));
+            }
+            try (PreparedStatement stmt = conn
+                    .prepareStatement("INSERT OR REPLACE INTO analyzers (lang, name) VALUES (?,?)")) {
+                stmt.setString(1, lang);
+                stmt.setString(2, name);
+                stmt.execute();
+            }
+            conn.commit();
+            analyzers.put(lang, analyzer);
+        }
+    }
+
+    private void migrateIndex(String lang) throws IOException, SQLException {
+        // copy the postings of the MapDB index used by previous versions
+        FuzzyIndex legacy = new FuzzyIndex(databaseFolder);
+        Map<String, Integer> ordinals = new HashMap<>();
+        Iterator<Fun.Tuple2<Integer, String>> it = legacy.getIndex(lang).iterator();
+        while (it.hasNext()) {
+            Fun.Tuple2<Integer, String> entry = it.next();
+            Integer ordinal = ordinals.get(entry.b);
+            if (ordinal == null) {
+                if (ordinals.size() > 1000000) {
+                    ordinals.clear();
+                }
+                ordinal = getOrdinal(entry.b);
+                ordinals.put(entry.b, ordinal);
+            }
+            ngramIndex.add(lang, entry.a, ordinal);
+        }
+        legacy.close();
+        conn.commit();
+        ngramIndex.commit();
+        String[] suffixes = { "", ".p", ".t" };
+        for (String suffix : suffixes) {
+            Files.deleteIfExists(new File(databaseFolder, "index_" + lang + suffix).toPath());
+        }
+    }
+
     @Override
     public JSONArray batchTranslate(JSONObject params)
             throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
@@ -153,77 +523,168 @@ public class SqliteDatabase implements ITmEngine {
         String tgtLang = params.getString("tgtLang");
         JSONArray segments = params.getJSONArray("segments");
         boolean caseSensitiveMatches = params.getBoolean("caseSensitiveMatches");
+        int limit = params.optInt("limit", 0);
+        int similarity = 60;
+
+        // read each n-gram and each candidate row once for the whole batch
+        List<int[]> queries = new Vector<>();
+        int minLength = Integer.MAX_VALUE;
+        int maxLength = 0;
+        for (int i = 0; i < segments.length(); i++) {
+            String pure = segments.getJSONObject(i).getString("pure");
+            queries.add(getSearchAnalyzer(srcLang).getNGrams(pure));
+            minLength = Math.min(minLength, pure.length() * similarity / 100);
+            maxLength = Math.max(maxLength, pure.length() * (200 - similarity) / 100);
+        }
+        List<int[][]> counted = getIndex(srcLang).countCandidates(srcLang, queries);
+        List<Map<Integer, Integer>> overlaps = new Vector<>();
+        Set<Integer> ordinals = new HashSet<>();
+        for (int i = 0; i < queries.size(); i++) {
+            Map<Integer, Integer> map = getOverlaps(queries.get(i).length, counted.get(i), similarity);
+            overlaps.add(map);
+            ordinals.addAll(map.keySet());
+        }
+        Map<Integer, Candidate> rows;
+        Reader reader = readers.acquire();
+        try {
+            rows = getRows(reader, ordinals, srcLang, tgtLang, minLength, maxLength);
+        } finally {
+            readers.release(reader);
+        }
+
+        // scoring does not use a connection and can run in parallel with other batches
+        List<List<Candidate>> scored = new Vector<>();
         for (int i = 0; i < segments.length(); i++) {
-            JSONObject json = segments.getJSONObject(i);
-            List<Match> matches = searchTranslation(json.getString("pure"), srcLang, tgtLang, 60, caseSensitiveMatches);
-            JSONArray array = new JSONArray();
-            for (int j = 0; j < matches.size(); j++) {
-                array.put(matches.get(j).toJSON());
+            String pure = segments.getJSONObject(i).getString("pure");
+            List<Candidate> candidates = getCandidates(overlaps.get(i), rows, pure.length() * similarity / 100,
+                    pure.length() * (200 - similarity) / 100);
+            scored.add(score(pure, candidates, similarity, caseSensitiveMatches, limit));
+        }
+
+        Map<String, Match> found = new HashMap<>();
+        reader = readers.acquire();
+        try {
+            for (int i = 0; i < segments.length(); i++) {
+                JSONObject json = segments.getJSONObject(i);
+                List<Match> matches = getMatches(reader, scored.get(i), srcLang, tgtLang, limit, found);
+                JSONArray array = new JSONArray();
+                for (int j = 0; j < matches.size(); j++) {
+                    array.put(matches.get(j).toJSON());
+                }
+                json.put("matches", array);
+                result.put(json);
             }
-            json.put("matches", array);
-            result.put(json);
+        } finally {
+            readers.release(reader);
         }
         return result;
     }
 
     @Override
     public void close() throws IOException, SQLException, URISyntaxException {
-        storeTUV.close();
-        deleteTUV.close();
-        searchTUV.close();
-        conn.commit();
-        conn.close();
-        fuzzyIndex.commit();
-        fuzzyIndex.close();
-        tuDb.commit();
-        tuDb.close();
+        synchronized (conn) {
+            tuCache.clear();
+            readers.close();
+            Iterator<PreparedStatement> it = statements.values().iterator();
+            while (it.hasNext()) {
+                it.next().close();
+            }
+            statements.clear();
+            storeTUV.close();
+            deleteTUV.close();
+            searchTUV.close();
+            getOrdinal.close();
+            insertOrdinal.close();
+            conn.commit();
+            conn.close();
+            ngramIndex.close();
+            tuDb.commit();
+            tuDb.close();
+        }
     }
 
     @Override
     public void commit() throws SQLException, IOException, URISyntaxException {
-        conn.commit();
-        fuzzyIndex.commit();
-        tuDb.commit();
+        synchronized (conn) {
+            if (bulk) {
+                // the index and the TU data are saved when the load ends
+                bulkInsert.executeBatch();
+                conn.commit();
+                tuCache.clear();
+                return;
+            }
+            conn.commit();
+            ngramIndex.commit();
+            tuDb.commit();
+            invalidateUncommitted();
+        }
+    }
+
+    /**
+     * Readers may have cached TUs changed by the writer before the commit made
+     * the changes visible to them.
+     */
+    private void invalidateUncommitted() {
+        Iterator<String> it = uncommitted.iterator();
+        while (it.hasNext()) {
+            tuCache.invalidate(it.next());
+        }
+        uncommitted.clear();
     }
 
     @Override
     public List<Element> concordanceSearch(String searchStr, String srcLang, int limit, boolean isRegexp,
             boolean caseSensitive) throws SQLException, SAXException, IOException, ParserConfigurationException {
+        return concordanceSearch(searchStr, srcLang, limit, isRegexp, caseSensitive, false);
+    }
+
+    @Override
+    public List<Element> concordanceSearch(String searchStr, String srcLang, int limit, boolean isRegexp,
+            boolean caseSensitive, boolean unicode)
+            throws SQLException, SAXException, IOException, ParserConfigurationException {
         List<Element> result = new Vector<>();
         Vector<String> candidates = new Vector<>();
+        String condition;
+        String pattern;
+        String phrase;
         if (isRegexp) {
-            try (PreparedStatement stmt = conn
-                    .prepareStatement("SELECT tuid, puretext FROM tuv WHERE lang=? AND puretext REGEXP ? LIMIT ?")) {
-                stmt.setString(1, srcLang);
-                stmt.setString(2, searchStr);
-                stmt.setInt(3, limit);
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        candidates.add(rs.getString(1));
-                    }
-                }
-            }
+            condition = "REGEXP(?, puretext, " + RegexpFunction.flags(caseSensitive, unicode) + ")";
+            pattern = searchStr;
+            phrase = TextSearch.matchPhrase(TextSearch.requiredLiteral(searchStr));
         } else {
-            String sql = caseSensitive ? "SELECT tuid, puretext FROM tuv WHERE lang=? AND puretext GLOB ? LIMIT ?"
-                    : "SELECT tuid, puretext FROM tuv WHERE lang=? AND puretext LIKE ? LIMIT ?";
-            String escaped = searchStr.replace("%", "\\%").replace("_", "\\_");
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, srcLang);
-                stmt.setString(2, caseSensitive ? "*" + escaped + "*" : "%" + escaped + "%");
-                stmt.setInt(3, limit);
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        candidates.add(rs.getString(1));
-                    }
+            condition = caseSensitive ? "puretext GLOB ?" : "puretext LIKE ? ESCAPE '\\'";
+            pattern = caseSensitive ? TextSearch.globPattern(searchStr) : TextSearch.likePattern(searchStr);
+            phrase = TextSearch.matchPhrase(searchStr);
+        }
+        // the trigram index selects the candidates, the condition checks them
+        String sql = phrase != null
+                ? "SELECT tuid FROM tuv WHERE rowid IN (SELECT rowid FROM tuv_fts WHERE tuv_fts MATCH ?) AND lang=? AND "
+                        + condition + " LIMIT ?"
+                : "SELECT tuid FROM tuv WHERE lang=? AND " + condition + " LIMIT ?";
+        Reader reader = readers.acquire();
+        try {
+            PreparedStatement stmt = reader.prepare(sql);
+            int param = 1;
+            if (phrase != null) {
+                stmt.setString(param++, phrase);
+            }
+            stmt.setString(param++, srcLang);
+            stmt.setString(param++, pattern);
+            stmt.setInt(param, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    candidates.add(rs.getString(1));
                 }
             }
-        }
 
-        Iterator<String> it = candidates.iterator();
-        while (it.hasNext()) {
-            String tuid = it.next();
-            Element tu = getTu(tuid);
-            result.add(tu);
+            Iterator<String> it = candidates.iterator();
+            while (it.hasNext()) {
+                String tuid = it.next();
+                Element tu = getTu(reader, tuid);
+                result.add(tu);
+            }
+        } finally {
+            readers.release(reader);
         }
         return result;
     }
@@ -233,16 +694,12 @@ public class SqliteDatabase implements ITmEngine {
         TmsServer.deleteFolder(databaseFolder);
     }
 
-    private void writeString(String string) throws IOException {
-        output.write(string.getBytes(StandardCharsets.UTF_8));
-    }
-
-    private void writeHeader(String srcLang) throws IOException {
-        writeString("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-        writeString(
+    private static void writeHeader(Writer writer, String srcLang) throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write(
                 "<!DOCTYPE tmx PUBLIC \"-//LISA OSCAR:1998//DTD for Translation Memory eXchange//EN\" \"tmx14.dtd\" >\n");
-        writeString("<tmx version=\"1.4\">\n");
-        writeString("<header creationtool=\"" + Constants.APPNAME + "\" creationtoolversion=\"" + Constants.VERSION
+        writer.write("<tmx version=\"1.4\">\n");
+        writer.write("<header creationtool=\"" + Constants.APPNAME + "\" creationtoolversion=\"" + Constants.VERSION
                 + "\" srclang=\"" + srcLang + "\" "
                 + " adminlang=\"en\" datatype=\"xml\" o-tmf=\"unknown\" segtype=\"block\" creationdate=\""
                 + TMUtils.creationDate() + "\"/>\n");
@@ -250,45 +707,143 @@ public class SqliteDatabase implements ITmEngine {
 
     @Override
     public void exportMemory(String tmxfile, Set<String> langs, String srcLang) throws IOException, SQLException {
-        output = new FileOutputStream(tmxfile);
-        writeHeader(srcLang);
-        writeString("<body>\n");
-        try (PreparedStatement stmt = conn.prepareStatement("SELECT lang, seg FROM tuv WHERE tuid=?")) {
-            try (Statement tus = conn.createStatement()) {
-                try (ResultSet tuKeys = tus.executeQuery("SELECT DISTINCT TUID from TUV")) {
-                    while (tuKeys.next()) {
-                        String tuid = tuKeys.getString(1);
-                        Element tu = tuDb.getTu(tuid);
-                        stmt.setString(1, tuid);
+        exportMemory(tmxfile, langs, srcLang, new JSONObject());
+    }
+
+    /**
+     * Writes the TUs in a single scan of the tuv table ordered by tuid. Stored
+     * segments are copied to the output as they are, only segments with
+     * non-numeric {@code x} or {@code i} attributes are parsed again to fix
+     * them.
+     */
+    @Override
+    public void exportMemory(String tmxfile, Set<String> langs, String srcLang, JSONObject options)
+            throws IOException, SQLException {
+        String project = options.has("project") ? options.getString("project") : "";
+        String from = options.has("from") ? options.getString("from") : "";
+        String to = options.has("to") ? options.getString("to") : "";
+        OutputStream out = new FileOutputStream(tmxfile);
+        if (options.has("compress") && options.getBoolean("compress")) {
+            out = new GZIPOutputStream(out, EXPORT_BUFFER);
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), EXPORT_BUFFER)) {
+            writeHeader(writer, srcLang);
+            writer.write("<body>\n");
+            Reader reader = readers.acquire();
+            try {
+                try (Statement stmt = reader.getConnection().createStatement()) {
+                    try (ResultSet rs = stmt.executeQuery(
+                            "SELECT tuv.tuid, tuids.id, lang, seg FROM tuv LEFT JOIN tuids ON tuids.tuid = tuv.tuid ORDER BY tuv.tuid")) {
+                        String current = null;
+                        int ordinal = 0;
+                        StringBuilder tuvs = new StringBuilder();
                         int count = 0;
-                        try (ResultSet rs = stmt.executeQuery()) {
-                            while (rs.next()) {
-                                String lang = rs.getString(1);
-                                String seg = rs.getString(2);
-                                if (seg.equals("<seg></seg>") || !langs.contains(lang)) {
-                                    continue;
+                        while (rs.next()) {
+                            String tuid = rs.getString(1);
+                            if (!tuid.equals(current)) {
+                                if (count >= 2) {
+                                    writeTu(writer, current, ordinal, tuvs, project, from, to);
                                 }
+                                current = tuid;
+                                ordinal = rs.getInt(2);
+                                tuvs.setLength(0);
+                                count = 0;
+                            }
+                            String lang = rs.getString(3);
+                            String seg = rs.getString(4);
+                            if (seg.equals("<seg></seg>") || !langs.contains(lang)) {
+                                continue;
+                            }
+                            if (hasSymbolicIds(seg)) {
                                 try {
-                                    Element tuv = TMUtils.buildTuv(lang, seg);
-                                    tu.addContent(tuv);
-                                    count++;
-                                } catch (Exception e) {
+                                    seg = TMUtils.buildTuv(lang, seg).getChild("seg").toString();
+                                } catch (SAXException | ParserConfigurationException | IOException e) {
                                     logger.log(Level.ERROR, Messages.getString("SqliteDatabase.3"), e);
                                     logger.log(Level.INFO, "seg: " + seg);
+                                    continue;
                                 }
                             }
+                            tuvs.append("  <tuv xml:lang=\"");
+                            tuvs.append(lang);
+                            tuvs.append("\">\n    ");
+                            tuvs.append(seg);
+                            tuvs.append("\n  </tuv>\n");
+                            count++;
                         }
                         if (count >= 2) {
-                            Indenter.indent(tu, 2);
-                            writeString(tu.toString() + "\n");
+                            writeTu(writer, current, ordinal, tuvs, project, from, to);
                         }
                     }
                 }
+            } finally {
+                readers.release(reader);
+            }
+            writer.write("</body>\n");
+            writer.write("</tmx>\n");
+        }
+    }
+
+    private void writeTu(Writer writer, String tuid, int ordinal, StringBuilder tuvs, String project, String from,
+            String to) throws IOException {
+        Element tu = tuDb.getTu(ordinal, tuid);
+        if (!project.isEmpty() || !from.isEmpty() || !to.isEmpty()) {
+            String date = tu.getAttributeValue("creationdate");
+            if (!from.isEmpty() && date.compareTo(from) < 0 || !to.isEmpty() && date.compareTo(to) > 0) {
+                return;
+            }
+            if (!project.isEmpty() && !project.equals(getProperty(tu, "project"))) {
+                return;
+            }
+        }
+        writer.write(tu.getHead());
+        writer.write('\n');
+        List<Element> children = tu.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            Element child = children.get(i);
+            if (!"tuv".equals(child.getName())) {
+                writer.write("  ");
+                writer.write(child.toString());
+                writer.write('\n');
+            }
+        }
+        writer.append(tuvs);
+        writer.write("</tu>\n");
+    }
+
+    /**
+     * Checks for the {@code x} and {@code i} values that
+     * {@link TMUtils#buildTuv(String, String)} replaces.
+     */
+    private static boolean hasSymbolicIds(String seg) {
+        String[] names = { " x=\"", " i=\"" };
+        for (String name : names) {
+            int index = seg.indexOf(name);
+            while (index != -1) {
+                int start = index + name.length();
+                int end = seg.indexOf('"', start);
+                if (end == -1) {
+                    return true;
+                }
+                try {
+                    Double.parseDouble(seg.substring(start, end));
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+                index = seg.indexOf(name, end);
+            }
+        }
+        return false;
+    }
+
+    private static String getProperty(Element tu, String type) {
+        List<Element> properties = tu.getChildren("prop");
+        for (int i = 0; i < properties.size(); i++) {
+            Element prop = properties.get(i);
+            if (type.equals(prop.getAttributeValue("type"))) {
+                return prop.getText();
             }
         }
-        writeString("</body>\n");
-        writeString("</tmx>\n");
-        output.close();
+        return "";
     }
 
     @Override
@@ -299,12 +854,15 @@ public class SqliteDatabase implements ITmEngine {
     @Override
     public Set<String> getAllLanguages() throws SQLException, IOException, URISyntaxException {
         Set<String> result = Collections.synchronizedSortedSet(new TreeSet<>());
-        try (Statement stmt = conn.createStatement()) {
+        Reader reader = readers.acquire();
+        try (Statement stmt = reader.getConnection().createStatement()) {
             try (ResultSet rs = stmt.executeQuery("SELECT DISTINCT lang FROM tuv")) {
                 while (rs.next()) {
                     result.add(rs.getString(1));
                 }
             }
+        } finally {
+            readers.release(reader);
         }
         return result;
     }
@@ -327,21 +885,37 @@ public class SqliteDatabase implements ITmEngine {
     @Override
     public Element getTu(String tuid)
             throws IOException, SAXException, ParserConfigurationException, SQLException {
-        Element tu = tuDb.getTu(tuid);
-        try (PreparedStatement stmt = conn.prepareStatement("SELECT lang, seg FROM tuv WHERE tuid=?")) {
-            stmt.setString(1, tuid);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    String lang = rs.getString(1);
-                    String seg = rs.getString(2);
-                    if (seg.equals("<seg></seg>")) {
-                        continue;
-                    }
-                    Element tuv = TMUtils.buildTuv(lang, seg);
-                    tu.addContent(tuv);
+        Reader reader = readers.acquire();
+        try {
+            return getTu(reader, tuid);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    private Element getTu(Reader reader, String tuid)
+            throws IOException, SAXException, ParserConfigurationException, SQLException {
+        Element tu = null;
+        PreparedStatement stmt = reader.prepare(
+                "SELECT tuids.id, lang, seg FROM tuids LEFT JOIN tuv ON tuv.tuid = tuids.tuid WHERE tuids.tuid=?");
+        stmt.setString(1, tuid);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                if (tu == null) {
+                    int ordinal = rs.getInt(1);
+                    tu = tuCache.getHeader(tuid, () -> tuDb.getTu(ordinal, tuid));
                 }
+                String lang = rs.getString(2);
+                String seg = rs.getString(3);
+                if (seg == null || seg.equals("<seg></seg>")) {
+                    continue;
+                }
+                tu.addContent(tuCache.getTuv(tuid, lang, () -> TMUtils.buildTuv(lang, seg)));
             }
         }
+        if (tu == null) {
+            tu = tuDb.getTu(-1, tuid);
+        }
         return tu;
     }
 
@@ -353,16 +927,18 @@ public class SqliteDatabase implements ITmEngine {
     @Override
     public void removeTu(String tuid)
             throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
-        Element tu = getTu(tuid);
-        List<Element> tuvs = tu.getChildren("tuv");
-        Iterator<Element> it = tuvs.iterator();
-        while (it.hasNext()) {
-            Element tuv = it.next();
-            String lang = LanguageUtils.normalizeCode(tuv.getAttributeValue("xml:lang"));
-            delete(tuid, lang);
+        synchronized (conn) {
+            PreparedStatement stmt = prepare("DELETE FROM tuv WHERE tuid=?");
+            stmt.setString(1, tuid);
+            stmt.execute();
+            uncommitted.add(tuid);
+            int ordinal = findOrdinal(tuid);
+            if (ordinal != -1) {
+                tuDb.remove(ordinal);
+            }
+            tuCache.invalidate(tuid);
+            commit();
         }
-        tuDb.remove(tuid);
-        commit();
     }
 
     private void delete(String tuid, String lang) throws SQLException {
@@ -375,63 +951,15 @@ public class SqliteDatabase implements ITmEngine {
     public List<Element> searchAll(String searchStr, String srcLang, int similarity, boolean caseSensitive)
             throws IOException, SAXException, ParserConfigurationException, SQLException {
         List<Element> result = new Vector<>();
-
-        int[] ngrams = NGrams.getNGrams(searchStr);
-        int size = ngrams.length;
-        if (size == 0) {
-            return result;
-        }
-        int min = size * similarity / 100;
-        int max = size * (200 - similarity) / 100;
-
-        int minLength = searchStr.length() * similarity / 100;
-        int maxLength = searchStr.length() * (200 - similarity) / 100;
-
-        Map<String, Integer> candidates = new Hashtable<>();
-        try (PreparedStatement stmt = conn.prepareStatement(
-                "SELECT puretext FROM tuv WHERE lang=? AND tuid=? AND textlength>=? AND textlength<=?")) {
-            stmt.setString(1, srcLang);
-            stmt.setInt(3, minLength);
-            stmt.setInt(4, maxLength);
-
-            NavigableSet<Fun.Tuple2<Integer, String>> index = fuzzyIndex.getIndex(srcLang);
-            for (int i = 0; i < ngrams.length; i++) {
-                Iterable<String> keys = Fun.filter(index, ngrams[i]);
-                Iterator<String> it = keys.iterator();
-                while (it.hasNext()) {
-                    String tuid = it.next();
-                    if (candidates.containsKey(tuid)) {
-                        int count = candidates.get(tuid);
-                        candidates.put(tuid, count + 1);
-                    } else {
-                        candidates.put(tuid, 1);
-                    }
-                }
-            }
-            Set<String> tuids = candidates.keySet();
-            Iterator<String> it = tuids.iterator();
-            while (it.hasNext()) {
-                String tuid = it.next();
-                int count = candidates.get(tuid);
-                if (count >= min && count <= max) {
-                    stmt.setString(2, tuid);
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        while (rs.next()) {
-                            String pure = rs.getString(1);
-                            int distance;
-                            if (caseSensitive) {
-                                distance = MatchQuality.similarity(searchStr, pure);
-                            } else {
-                                distance = MatchQuality.similarity(searchStr.toLowerCase(), pure.toLowerCase());
-                            }
-                            if (distance >= similarity) {
-                                Element tu = getTu(tuid);
-                                result.add(tu);
-                            }
-                        }
-                    }
-                }
+        Reader reader = readers.acquire();
+        try {
+            List<Candidate> candidates = getCandidates(reader, searchStr, srcLang, null, similarity);
+            List<Candidate> matches = score(searchStr, candidates, similarity, caseSensitive, 0);
+            for (int i = 0; i < matches.size(); i++) {
+                result.add(getTu(reader, matches.get(i).tuid));
             }
+        } finally {
+            readers.release(reader);
         }
         return result;
     }
@@ -439,102 +967,252 @@ public class SqliteDatabase implements ITmEngine {
     @Override
     public List<Match> searchTranslation(String searchStr, String srcLang, String tgtLang, int similarity,
             boolean caseSensitive) throws SAXException, IOException, ParserConfigurationException, SQLException {
+        return searchTranslation(searchStr, srcLang, tgtLang, similarity, caseSensitive, 0);
+    }
+
+    @Override
+    public List<Match> searchTranslation(String searchStr, String srcLang, String tgtLang, int similarity,
+            boolean caseSensitive, int limit)
+            throws SAXException, IOException, ParserConfigurationException, SQLException {
         // search for TUs with a given source and target language
+        Reader reader = readers.acquire();
+        try {
+            List<Candidate> candidates = getCandidates(reader, searchStr, srcLang, tgtLang, similarity);
+            List<Candidate> matches = score(searchStr, candidates, similarity, caseSensitive, limit);
+            return getMatches(reader, matches, srcLang, tgtLang, limit, new HashMap<>());
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    /**
+     * Builds the matches for the scored candidates, best first. {@code found}
+     * keeps the TUs already read, so that a batch reads each one only once.
+     */
+    private List<Match> getMatches(Reader reader, List<Candidate> candidates, String srcLang, String tgtLang,
+            int limit, Map<String, Match> found)
+            throws SQLException, SAXException, IOException, ParserConfigurationException {
         List<Match> result = new Vector<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            if (!found.containsKey(candidate.tuid)) {
+                found.put(candidate.tuid, readMatch(reader, candidate.tuid, srcLang, tgtLang));
+            }
+            Match match = found.get(candidate.tuid);
+            if (match != null) {
+                result.add(new Match(match.getSource(), match.getTarget(), candidate.similarity, dbname,
+                        match.getProperties()));
+            }
+        }
+        Collections.sort(result);
+        if (limit > 0 && result.size() > limit) {
+            result.subList(limit, result.size()).clear();
+        }
+        return result;
+    }
 
-        int[] ngrams = null;
-        ngrams = NGrams.getNGrams(searchStr);
-        int size = ngrams.length;
-        if (size == 0) {
-            return result;
+    private Match readMatch(Reader reader, String tuid, String srcLang, String tgtLang)
+            throws SQLException, SAXException, IOException, ParserConfigurationException {
+        Element source = getTuv(reader, tuid, srcLang);
+        Element target = getTuv(reader, tuid, tgtLang);
+        if (source == null || target == null) {
+            return null;
         }
-        int min = size * similarity / 100;
-        int max = size * (200 - similarity) / 100;
+        Map<String, String> propsMap = new Hashtable<>();
+        Element tu = tuCache.getHeader(tuid, () -> tuDb.getTu(findOrdinal(reader, tuid), tuid));
+        List<Element> props = tu.getChildren("prop");
+        Iterator<Element> pt = props.iterator();
+        while (pt.hasNext()) {
+            Element prop = pt.next();
+            propsMap.put(prop.getAttributeValue("type"), prop.getText());
+        }
+        return new Match(source, target, 0, dbname, propsMap);
+    }
+
+    private Element getTuv(Reader reader, String tuid, String lang)
+            throws SQLException, SAXException, IOException, ParserConfigurationException {
+        return tuCache.getTuv(tuid, lang, () -> {
+            PreparedStatement stmt = reader.prepare("SELECT seg FROM tuv WHERE tuid=? AND lang=?");
+            stmt.setString(1, tuid);
+            stmt.setString(2, lang);
+            Element tuv = null;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    tuv = TMUtils.buildTuv(lang, rs.getString(1));
+                }
+            }
+            return tuv;
+        });
+    }
 
+    /**
+     * Collects the TUs that share enough n-grams with {@code searchStr} and have
+     * a compatible length. When {@code tgtLang} is not null, only TUs that also
+     * have a variant in that language are returned.
+     */
+    private List<Candidate> getCandidates(Reader reader, String searchStr, String srcLang, String tgtLang,
+            int similarity) throws IOException, SQLException {
+        int[] ngrams = getSearchAnalyzer(srcLang).getNGrams(searchStr);
+        if (ngrams.length == 0) {
+            return new Vector<>();
+        }
         int minLength = searchStr.length() * similarity / 100;
         int maxLength = searchStr.length() * (200 - similarity) / 100;
+        int[][] counted = getIndex(srcLang).countCandidates(srcLang, ngrams);
+        Map<Integer, Integer> overlaps = getOverlaps(ngrams.length, counted, similarity);
+        Map<Integer, Candidate> rows = getRows(reader, overlaps.keySet(), srcLang, tgtLang, minLength, maxLength);
+        return getCandidates(overlaps, rows, minLength, maxLength);
+    }
 
-        Hashtable<String, Integer> candidates = new Hashtable<>();
-        try (PreparedStatement stmt = conn.prepareStatement(
-                "SELECT puretext, seg, textlength FROM tuv WHERE lang=? AND tuid=? AND textlength>=? AND textlength<=?")) {
-            stmt.setString(1, srcLang);
-            stmt.setInt(3, minLength);
-            stmt.setInt(4, maxLength);
-
-            try (PreparedStatement stmt2 = conn.prepareStatement("SELECT lang, seg FROM tuv WHERE tuid=? AND lang=?")) {
-                stmt2.setString(2, tgtLang);
-
-                NavigableSet<Fun.Tuple2<Integer, String>> index = fuzzyIndex.getIndex(srcLang);
-                for (int i = 0; i < ngrams.length; i++) {
-                    Iterable<String> keys = Fun.filter(index, ngrams[i]);
-                    Iterator<String> it = keys.iterator();
-                    while (it.hasNext()) {
-                        String tuid = it.next();
-                        if (candidates.containsKey(tuid)) {
-                            int count = candidates.get(tuid);
-                            candidates.put(tuid, count + 1);
-                        } else {
-                            candidates.put(tuid, 1);
-                        }
-                    }
+    private static List<Candidate> getCandidates(Map<Integer, Integer> overlaps, Map<Integer, Candidate> rows,
+            int minLength, int maxLength) {
+        List<Candidate> result = new Vector<>();
+        Iterator<Map.Entry<Integer, Integer>> it = overlaps.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, Integer> entry = it.next();
+            Candidate row = rows.get(entry.getKey());
+            if (row != null && row.length >= minLength && row.length <= maxLength) {
+                result.add(new Candidate(row, entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Selects the ordinals found in enough of the {@code size} n-grams of a
+     * text and maps them to the number of n-grams found.
+     */
+    private static Map<Integer, Integer> getOverlaps(int size, int[][] counted, int similarity) {
+        int min = size * similarity / 100;
+        int max = size * (200 - similarity) / 100;
+        int[] ordinals = counted[0];
+        int[] counts = counted[1];
+        Map<Integer, Integer> result = new HashMap<>();
+        for (int i = 0; i < ordinals.length; i++) {
+            int count = counts[i];
+            if (size > 0 && count >= min && count <= max) {
+                result.put(ordinals[i], count);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the source text of the given ordinals in a few set based queries.
+     */
+    private Map<Integer, Candidate> getRows(Reader reader, Set<Integer> ordinals, String srcLang, String tgtLang,
+            int minLength, int maxLength) throws SQLException {
+        Map<Integer, Candidate> result = new HashMap<>();
+        if (ordinals.isEmpty()) {
+            return result;
+        }
+        StringBuilder sql = new StringBuilder(
+                "SELECT tuids.id, tuv.tuid, puretext, textlength FROM tuids JOIN tuv ON tuv.tuid=tuids.tuid WHERE tuv.lang=? AND textlength>=? AND textlength<=?");
+        if (tgtLang != null) {
+            sql.append(" AND EXISTS (SELECT 1 FROM tuv AS tgt WHERE tgt.tuid=tuv.tuid AND tgt.lang=?)");
+        }
+        sql.append(" AND tuids.id IN (?");
+        for (int i = 1; i < CANDIDATES_CHUNK; i++) {
+            sql.append(",?");
+        }
+        sql.append(')');
+        PreparedStatement stmt = reader.prepare(sql.toString());
+        stmt.setString(1, srcLang);
+        stmt.setInt(2, minLength);
+        stmt.setInt(3, maxLength);
+        int first = 4;
+        if (tgtLang != null) {
+            stmt.setString(4, tgtLang);
+            first = 5;
+        }
+        Iterator<Integer> it = ordinals.iterator();
+        while (it.hasNext()) {
+            for (int i = 0; i < CANDIDATES_CHUNK; i++) {
+                // ordinals start at 1, unused parameters match nothing
+                stmt.setInt(first + i, it.hasNext() ? it.next() : 0);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Candidate row = new Candidate(rs.getInt(1), 0);
+                    row.tuid = rs.getString(2);
+                    row.text = rs.getString(3);
+                    row.length = rs.getInt(4);
+                    result.put(row.ordinal, row);
                 }
-                Enumeration<String> tuids = candidates.keys();
-                while (tuids.hasMoreElements()) {
-                    String tuid = tuids.nextElement();
-                    int count = candidates.get(tuid);
-                    if (count >= min && count <= max) {
-                        stmt.setString(2, tuid);
-                        stmt2.setString(1, tuid);
-                        try (ResultSet rs = stmt.executeQuery()) {
-                            while (rs.next()) {
-                                String pure = rs.getString(1);
-                                String srcSeg = rs.getString(2);
-                                int distance;
-                                if (caseSensitive) {
-                                    distance = MatchQuality.similarity(searchStr, pure);
-                                } else {
-                                    distance = MatchQuality.similarity(searchStr.toLowerCase(), pure.toLowerCase());
-                                }
-                                if (distance >= similarity) {
-                                    boolean tgtFound = false;
-                                    Element target = null;
-                                    try (ResultSet rs2 = stmt2.executeQuery()) {
-                                        while (rs2.next()) {
-                                            String lang = rs2.getString(1);
-                                            String seg = rs2.getString(2);
-                                            target = TMUtils.buildTuv(lang, seg);
-                                            tgtFound = true;
-                                        }
-                                    }
-                                    if (tgtFound) {
-                                        Element source = TMUtils.buildTuv(srcLang, srcSeg);
-                                        Map<String, String> propsMap = new Hashtable<>();
-                                        Element tu = getTu(tuid);
-                                        List<Element> props = tu.getChildren("prop");
-                                        Iterator<Element> pt = props.iterator();
-                                        while (pt.hasNext()) {
-                                            Element prop = pt.next();
-                                            propsMap.put(prop.getAttributeValue("type"), prop.getText());
-                                        }
-                                        Match match = new Match(source, target, distance, dbname, propsMap);
-                                        result.add(match);
-                                    }
-                                }
-                            }
-                        }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Scores candidates in decreasing order of their best possible similarity.
+     * When {@code limit} is greater than 0, scoring stops as soon as no remaining
+     * candidate can reach the {@code limit}-th best score; candidates that tie
+     * with that score are kept so that callers can break ties.
+     */
+    private static List<Candidate> score(String searchStr, List<Candidate> candidates, int similarity,
+            boolean caseSensitive, int limit) {
+        String search = caseSensitive ? searchStr : searchStr.toLowerCase();
+        int length = search.trim().length();
+        for (int i = 0; i < candidates.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            if (!caseSensitive) {
+                candidate.text = candidate.text.toLowerCase();
+            }
+            candidate.bound = MatchQuality.upperBound(length, candidate.text.trim().length());
+        }
+        candidates.sort((a, b) -> a.bound != b.bound ? Integer.compare(b.bound, a.bound)
+                : Integer.compare(b.overlap, a.overlap));
+        // the best scores seen so far, lowest on top
+        PriorityQueue<Integer> best = new PriorityQueue<>();
+        int threshold = similarity;
+        List<Candidate> result = new Vector<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            if (candidate.bound < threshold) {
+                break;
+            }
+            candidate.similarity = MatchQuality.similarity(search, candidate.text);
+            if (candidate.similarity >= threshold) {
+                result.add(candidate);
+                if (limit > 0) {
+                    best.add(candidate.similarity);
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                    if (best.size() == limit) {
+                        threshold = Math.max(threshold, best.peek());
                     }
                 }
             }
         }
-        Collections.sort(result);
+        if (threshold > similarity) {
+            final int lowest = threshold;
+            result.removeIf(candidate -> candidate.similarity < lowest);
+        }
         return result;
     }
 
     @Override
     public int storeTMX(String tmxFile, String project, String customer, String subject)
             throws SAXException, IOException, ParserConfigurationException, SQLException, URISyntaxException {
+        return storeTMX(tmxFile, project, customer, subject, false);
+    }
+
+    @Override
+    public int storeTMX(String tmxFile, String project, String customer, String subject, boolean resume)
+            throws SAXException, IOException, ParserConfigurationException, SQLException, URISyntaxException {
         int imported = 0;
         next = 0l;
+        File tmx = new File(tmxFile).getAbsoluteFile();
+        File checkpoint = new File(databaseFolder, IMPORT_CHECKPOINT);
+        JSONObject job = resume ? getCheckpoint(checkpoint, tmx) : null;
+        if (job != null) {
+            // keep the values of the interrupted import
+            project = job.getString("project");
+            customer = job.getString("customer");
+            subject = job.getString("subject");
+        }
         if (customer == null) {
             customer = "";
         }
@@ -547,18 +1225,92 @@ public class SqliteDatabase implements ITmEngine {
         currProject = project;
         currSubject = subject;
         currCustomer = customer;
-        creationDate = TMUtils.creationDate();
+        creationDate = job != null ? job.getString("creationDate") : TMUtils.creationDate();
 
-        reader = new TMXReader(this);
-        reader.parse(new File(tmxFile).toURI().toURL());
-        imported = reader.getCount();
+        int skip = 0;
+        if (job != null) {
+            skip = job.getInt("count");
+        } else {
+            Files.deleteIfExists(checkpoint.toPath());
+            job = new JSONObject();
+            job.put("tmx", tmx.getPath());
+            job.put("size", tmx.length());
+            job.put("modified", tmx.lastModified());
+            job.put("project", project);
+            job.put("customer", customer);
+            job.put("subject", subject);
+            job.put("creationDate", creationDate);
+            // resuming a bulk load continues it in bulk mode
+            job.put("bulk", isEmpty());
+        }
+        if (job.getBoolean("bulk")) {
+            startBulkLoad();
+        }
+        try {
+            pipeline = new ImportPipeline(this, job, checkpoint);
+            imported = pipeline.run(tmx, skip);
+        } finally {
+            if (bulk) {
+                endBulkLoad();
+            }
+        }
         commit();
+        Files.deleteIfExists(checkpoint.toPath());
         return imported;
     }
 
+    /**
+     * Returns the checkpoint left by an interrupted import of {@code tmx}, or
+     * {@code null} when there is none or the file has changed since.
+     */
+    private static JSONObject getCheckpoint(File checkpoint, File tmx) throws IOException {
+        if (!checkpoint.exists()) {
+            return null;
+        }
+        JSONObject job = new JSONObject(Files.readString(checkpoint.toPath(), StandardCharsets.UTF_8));
+        if (!job.has("count") || !tmx.getPath().equals(job.getString("tmx")) || tmx.length() != job.getLong("size")
+                || tmx.lastModified() != job.getLong("modified")) {
+            return null;
+        }
+        return job;
+    }
+
+    boolean isBulkLoading() {
+        return bulk;
+    }
+
+    /**
+     * Saves everything stored so far, also during a bulk load.
+     */
+    void flush() throws SQLException, IOException {
+        synchronized (conn) {
+            if (bulk) {
+                bulkInsert.executeBatch();
+            }
+            conn.commit();
+            ngramIndex.commit();
+            tuDb.commit();
+            if (bulk) {
+                tuCache.clear();
+            } else {
+                invalidateUncommitted();
+            }
+        }
+    }
+
     @Override
     public void storeTu(Element tu) throws IOException, SQLException, URISyntaxException {
-        Set<String> tuLangs = Collections.synchronizedSortedSet(new TreeSet<>());
+        storeTu(prepareTu(tu));
+    }
+
+    /**
+     * Adds the import properties to {@code tu} and extracts the text and
+     * n-grams of its variants. Uses the database only to find the analyzer of a
+     * language not seen before, so imports call it from several threads.
+     */
+    TuEntry prepareTu(Element tu) throws IOException, SQLException {
+        TuEntry entry = new TuEntry();
+        Set<String> tuLangs = new TreeSet<>();
         List<Element> tuvs = tu.getChildren("tuv");
         String tuid = tu.getAttributeValue("tuid");
         if (tuid.isEmpty()) {
@@ -582,10 +1334,6 @@ public class SqliteDatabase implements ITmEngine {
             tu.setChildren(content);
             props.put(prop.getAttributeValue("type"), prop.getText());
         }
-        String sub = props.get("subject");
-        if (sub != null) {
-            tuDb.storeSubject(sub);
-        }
         if (currCustomer != null && !currCustomer.isEmpty() && !props.containsKey("customer")) {
             Element prop = new Element("prop");
             prop.setAttribute("type", "customer");
@@ -595,10 +1343,6 @@ public class SqliteDatabase implements ITmEngine {
             tu.setChildren(content);
             props.put(prop.getAttributeValue("type"), prop.getText());
         }
-        String cust = props.get("customer");
-        if (cust != null) {
-            tuDb.storeCustomer(cust);
-        }
         if (currProject != null && !currProject.isEmpty() && !props.containsKey("project")) {
             Element prop = new Element("prop");
             prop.setAttribute("type", "project");
@@ -608,51 +1352,115 @@ public class SqliteDatabase implements ITmEngine {
             tu.setChildren(content);
             props.put(prop.getAttributeValue("type"), prop.getText());
         }
-        String proj = props.get("project");
-        if (proj != null) {
-            tuDb.storeProject(proj);
-        }
         if (tu.getAttributeValue("creationdate").isEmpty()) {
             tu.setAttribute("creationdate", creationDate);
         }
-
-        storeTUV.setString(1, tuid);
+        entry.tuid = tuid;
+        entry.tu = tu;
+        entry.subject = props.get("subject");
+        entry.customer = props.get("customer");
+        entry.project = props.get("project");
 
         Iterator<Element> it = tuvs.iterator();
         while (it.hasNext()) {
             Element tuv = it.next();
             String lang = LanguageUtils.normalizeCode(tuv.getAttributeValue("xml:lang"));
             if (lang != null && !tuLangs.contains(lang)) {
-                if (exists(tuid, lang)) {
-                    delete(tuid, lang);
-                }
                 Element seg = tuv.getChild("seg");
                 String puretext = TMUtils.extractText(seg);
                 if (puretext.isEmpty()) {
+                    entry.variants.add(new TuEntry.Variant(lang, null, puretext, null));
                     continue;
                 }
-                storeTUV.setString(2, lang);
-                storeTUV.setString(3, seg.toString());
-                storeTUV.setString(4, puretext);
-                storeTUV.setInt(5, puretext.length());
-                storeTUV.execute();
+                int[] ngrams = getAnalyzer(lang).getNGrams(puretext);
+                entry.variants.add(new TuEntry.Variant(lang, seg.toString(), puretext, ngrams));
                 tuLangs.add(lang);
+            }
+        }
+        return entry;
+    }
 
-                tuDb.store(tuid, tu);
+    /**
+     * Writes a TU prepared with {@link #prepareTu(Element)}.
+     */
+    void storeTu(TuEntry entry) throws IOException, SQLException {
+        synchronized (conn) {
+            String tuid = entry.tuid;
+            tuCache.invalidate(tuid);
+            if (!bulk) {
+                // a bulk load clears the whole cache when it commits
+                uncommitted.add(tuid);
+            }
+            if (entry.subject != null) {
+                tuDb.storeSubject(entry.subject);
+            }
+            if (entry.customer != null) {
+                tuDb.storeCustomer(entry.customer);
+            }
+            if (entry.project != null) {
+                tuDb.storeProject(entry.project);
+            }
+
+            storeTUV.setString(1, tuid);
+            int ordinal = getOrdinal(tuid);
 
-                int[] ngrams = NGrams.getNGrams(puretext);
-                NavigableSet<Fun.Tuple2<Integer, String>> index = fuzzyIndex.getIndex(lang);
-                for (int i = 0; i < ngrams.length; i++) {
-                    Tuple2<Integer, String> entry = Fun.t2(ngrams[i], tuid);
-                    if (!index.contains(entry)) {
-                        index.add(entry);
+            boolean stored = false;
+            for (int i = 0; i < entry.variants.size(); i++) {
+                TuEntry.Variant variant = entry.variants.get(i);
+                String lang = variant.lang;
+                String puretext = variant.text;
+                if (bulk) {
+                    if (puretext.isEmpty()) {
+                        // may replace a TU seen earlier in the same file
+                        bulkInsert.executeBatch();
+                        delete(tuid, lang);
+                        continue;
                     }
+                    // rows inserted before with the same key are replaced
+                    bulkInsert.setString(1, tuid);
+                    bulkInsert.setString(2, lang);
+                    bulkInsert.setString(3, variant.seg);
+                    bulkInsert.setString(4, puretext);
+                    bulkInsert.setInt(5, puretext.length());
+                    bulkInsert.addBatch();
+                } else {
+                    if (exists(tuid, lang)) {
+                        delete(tuid, lang);
+                    }
+                    if (puretext.isEmpty()) {
+                        continue;
+                    }
+                    storeTUV.setString(2, lang);
+                    storeTUV.setString(3, variant.seg);
+                    storeTUV.setString(4, puretext);
+                    storeTUV.setInt(5, puretext.length());
+                    storeTUV.execute();
+                }
+                stored = true;
+
+                int[] ngrams = variant.ngrams;
+                NGramIndex index = getIndex(lang);
+                for (int j = 0; j < ngrams.length; j++) {
+                    index.add(lang, ngrams[j], ordinal);
+                }
+            }
+            if (stored) {
+                tuDb.store(ordinal, entry.tu);
+            }
+        }
+    }
+
+    private boolean isEmpty() throws SQLException {
+        synchronized (conn) {
+            try (Statement stmt = conn.createStatement()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM tuv LIMIT 1")) {
+                    return !rs.next();
                 }
             }
         }
     }
 
-    private String nextId() {
+    private synchronized String nextId() {
         if (next == 0l) {
             next = System.currentTimeMillis();
         }
@@ -672,23 +1480,47 @@ public class SqliteDatabase implements ITmEngine {
     }
 
     public int getCount() {
-        if (reader != null) {
-            return reader.getCount();
+        if (pipeline != null) {
+            return pipeline.getCount();
         }
         return 0;
     }
 
+    /**
+     * Size, capacity, hits and misses of the cache of parsed TUs.
+     */
+    public JSONObject getCacheStats() {
+        return tuCache.getStats();
+    }
+
+    /**
+     * Progress of the running import: TUs imported, TUs per second and the
+     * estimated seconds left ({@code -1} when not known yet).
+     */
+    public JSONObject getImportStatus() {
+        JSONObject status = new JSONObject();
+        status.put("imported", getCount());
+        if (pipeline != null) {
+            status.put("rate", Math.round(pipeline.getRate()));
+            status.put("eta", pipeline.getEta());
+        }
+        return status;
+    }
+
     @Override
     public java.util.List<com.maxprograms.xml.Element> getAllTerms() throws SQLException, IOException, org.xml.sax.SAXException, javax.xml.parsers.ParserConfigurationException {
         java.util.List<com.maxprograms.xml.Element> result = new java.util.Vector<>();
-        try (java.sql.Statement stmt = conn.createStatement()) {
+        Reader reader = readers.acquire();
+        try (java.sql.Statement stmt = reader.getConnection().createStatement()) {
             try (java.sql.ResultSet rs = stmt.executeQuery("SELECT DISTINCT tuid FROM tuv")) {
                 while (rs.next()) {
                     String tuid = rs.getString(1);
-                    com.maxprograms.xml.Element tu = getTu(tuid);
+                    com.maxprograms.xml.Element tu = getTu(reader, tuid);
                     result.add(tu);
                 }
             }
+        } finally {
+            readers.release(reader);
         }
         return result;
     }
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+/**
+ * Helpers for text searches answered with SQLite FTS5 tables that use the
+ * trigram tokenizer. Those indexes are case insensitive, so they are only used
+ * to select candidates; the exact condition is always checked afterwards.
+ */
+public class TextSearch {
+
+	private static final String SIMPLE_ESCAPES = "dDsSwWbBAGZzRhHvV";
+
+	private TextSearch() {
+		// private for security
+	}
+
+	/**
+	 * Builds a FTS5 phrase that finds the rows containing {@code text}.
+	 *
+	 * @return the quoted phrase, or {@code null} when {@code text} is too short to
+	 *         contain a trigram
+	 */
+	public static String matchPhrase(String text) {
+		if (text.codePointCount(0, text.length()) < 3) {
+			return null;
+		}
+		return '"' + text.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * Builds a FTS5 query that finds the rows with {@code text} in the given
+	 * column.
+	 *
+	 * @return the query, or {@code null} when {@code text} is too short to
+	 *         contain a trigram
+	 */
+	public static String matchPhrase(String column, String text) {
+		String phrase = matchPhrase(text);
+		return phrase == null ? null : column + " : " + phrase;
+	}
+
+	/**
+	 * Pattern for {@code LIKE ? ESCAPE '\'} that finds {@code text} anywhere.
+	 */
+	public static String likePattern(String text) {
+		return '%' + text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + '%';
+	}
+
+	/**
+	 * Pattern for {@code GLOB ?} that finds {@code text} anywhere.
+	 */
+	public static String globPattern(String text) {
+		StringBuilder sb = new StringBuilder();
+		sb.append('*');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '*' || c == '?' || c == '[') {
+				sb.append('[');
+				sb.append(c);
+				sb.append(']');
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('*');
+		return sb.toString();
+	}
+
+	/**
+	 * Finds the longest run of literal characters that every match of
+	 * {@code regex} must contain. The analysis is conservative: alternations,
+	 * inline flags, quoted sections and anything inside groups are not used.
+	 *
+	 * @return the literal, possibly empty
+	 */
+	public static String requiredLiteral(String regex) {
+		if (regex.indexOf('|') != -1 || regex.contains("(?") || regex.contains("\\Q")) {
+			return "";
+		}
+		String best = "";
+		StringBuilder run = new StringBuilder();
+		int depth = 0;
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 == regex.length()) {
+					return "";
+				}
+				char next = regex.charAt(i + 1);
+				i += 2;
+				if (Character.isLetterOrDigit(next)) {
+					best = longest(best, run);
+					run.setLength(0);
+					if (SIMPLE_ESCAPES.indexOf(next) == -1) {
+						// escapes with arguments are not analyzed
+						return best;
+					}
+				} else if (depth == 0) {
+					run.append(next);
+				}
+				continue;
+			}
+			switch (c) {
+				case '?', '*', '{':
+					// the previous character is optional
+					if (!run.isEmpty()) {
+						run.setLength(run.length() - 1);
+					}
+					best = longest(best, run);
+					run.setLength(0);
+					if (c == '{') {
+						int close = regex.indexOf('}', i);
+						if (close == -1) {
+							return best;
+						}
+						i = close;
+					}
+					i = skipModifier(regex, i + 1);
+					break;
+				case '+':
+					best = longest(best, run);
+					run.setLength(0);
+					i = skipModifier(regex, i + 1);
+					break;
+				case '[':
+					best = longest(best, run);
+					run.setLength(0);
+					i = skipClass(regex, i);
+					if (i == -1) {
+						return best;
+					}
+					break;
+				case '(':
+					best = longest(best, run);
+					run.setLength(0);
+					depth++;
+					i++;
+					break;
+				case ')':
+					depth--;
+					i++;
+					break;
+				case '.', '^', '$':
+					best = longest(best, run);
+					run.setLength(0);
+					i++;
+					break;
+				default:
+					if (depth == 0) {
+						run.append(c);
+					}
+					i++;
+			}
+		}
+		return longest(best, run);
+	}
+
+	private static String longest(String best, StringBuilder run) {
+		return run.length() > best.length() ? run.toString() : best;
+	}
+
+	private static int skipModifier(String regex, int i) {
+		if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+			return i + 1;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the position after the character class that starts at {@code i},
+	 * or -1 if it is not closed.
+	 */
+	private static int skipClass(String regex, int i) {
+		int nesting = 0;
+		int j = i;
+		while (j < regex.length()) {
+			char c = regex.charAt(j);
+			if (c == '\\') {
+				j += 2;
+				continue;
+			}
+			if (c == '[') {
+				nesting++;
+				if (j + 1 < regex.length() && regex.charAt(j + 1) == '^') {
+					j++;
+				}
+				if (j + 1 < regex.length() && regex.charAt(j + 1) == ']') {
+					// a leading ] is literal
+					j++;
+				}
+			} else if (c == ']') {
+				nesting--;
+				if (nesting == 0) {
+					return j + 1;
+				}
+			}
+			j++;
+		}
+		return -1;
+	}
+}
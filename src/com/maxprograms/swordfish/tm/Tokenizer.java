@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+/**
+ * Splits segment text into words, keeping the last lists produced so that the
+ * same text is not split again by term searches, match assembly or difference
+ * tagging, in any open project. Returned lists are shared and cannot be
+ * modified.
+ */
+public class Tokenizer {
+
+	private Tokenizer() {
+		// private for security
+	}
+
+	private static final int CACHE_SIZE = 8192;
+
+	private static Map<String, List<String>> words = lruMap();
+	private static Map<String, List<String>> cjkWords = lruMap();
+	private static Map<String, List<String>> tokens = lruMap();
+
+	/**
+	 * Returns the words of {@code text} separated by
+	 * {@link NGrams#TERM_SEPARATORS}. When {@code cjk} is true each ideograph is a
+	 * word.
+	 */
+	public static List<String> getWords(String text, boolean cjk) {
+		Map<String, List<String>> cache = cjk ? cjkWords : words;
+		synchronized (cache) {
+			List<String> result = cache.get(text);
+			if (result != null) {
+				return result;
+			}
+		}
+		List<String> result = Collections.unmodifiableList(
+				cjk ? cjkWordList(text, NGrams.TERM_SEPARATORS) : NGrams.buildWordList(text, NGrams.TERM_SEPARATORS));
+		synchronized (cache) {
+			cache.put(text, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the words and separators of {@code text}, with Asian characters as
+	 * separate tokens, as compared by {@code DifferenceTagger}.
+	 */
+	public static List<String> getTokens(String text) {
+		synchronized (tokens) {
+			List<String> result = tokens.get(text);
+			if (result != null) {
+				return result;
+			}
+		}
+		List<String> result = Collections.unmodifiableList(tokenList(text));
+		synchronized (tokens) {
+			tokens.put(text, result);
+		}
+		return result;
+	}
+
+	private static List<String> cjkWordList(String string, String separator) {
+		List<String> result = new Vector<>();
+		StringBuilder word = new StringBuilder();
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (Character.isIdeographic(c)) {
+				if (word.length() != 0) {
+					result.add(word.toString());
+					word.setLength(0);
+				}
+				result.add("" + c);
+				continue;
+			}
+			if (separator.indexOf(c) != -1) {
+				if (word.length() != 0) {
+					result.add(word.toString());
+					word.setLength(0);
+				}
+			} else {
+				word.append(c);
+			}
+		}
+		if (word.length() != 0) {
+			result.add(word.toString());
+		}
+		return result;
+	}
+
+	private static List<String> tokenList(String src) {
+		List<String> result = new Vector<>();
+		StringTokenizer tokenizer = new StringTokenizer(src, NGrams.TERM_SEPARATORS, true);
+		while (tokenizer.hasMoreElements()) {
+			String tk = tokenizer.nextToken();
+			StringBuilder word = new StringBuilder();
+			for (int i = 0; i < tk.length(); i++) {
+				if (isAsian(tk.charAt(i))) {
+					if (word.length() != 0) {
+						result.add(word.toString());
+						word.setLength(0);
+					}
+					result.add(tk.charAt(i) + "");
+				} else {
+					word.append(tk.charAt(i));
+				}
+			}
+			if (word.length() != 0) {
+				result.add(word.toString());
+			}
+		}
+		return result;
+	}
+
+	private static boolean isAsian(char c) {
+		if (c >= '\u0E01' && c <= '\u05EB') {
+			// Thai
+			return true;
+		}
+		if (c >= '\u0E81' && c <= '\u0EDD') {
+			// Lao
+			return true;
+		}
+		if (c >= '\u0F00' && c <= '\u0FB9') {
+			// Tibetan
+			return true;
+		}
+		if (c >= '\uAC00' && c <= '\uFFDC') {
+			// Korean
+			return true;
+		}
+		if (c >= '\u3041' && c <= '\u3357') {
+			// Japanese
+			return true;
+		}
+		if (c >= '\u3105' && c <= '\u3125') {
+			// Chinese BOPOMOFO
+			return true;
+		}
+		if (c >= '\u4E00' && c <= '\uFA2D') {
+			// CJK Ideographs
+			return true;
+		}
+		if (c >= '\u3000' && c <= '\u303F') {
+			// CJK Punctuation
+			return true;
+		}
+		if (c >= '\u3190' && c <= '\u33FE') {
+			// Ideographic Symbols
+			return true;
+		}
+		if (c >= '\uFE30' && c <= '\uFE4F') {
+			// CJK Compatibility forms
+			return true;
+		}
+		return (c >= '\uFF61' && c <= '\uFFDC');
+		// Halfwidth forms
+	}
+
+	private static Map<String, List<String>> lruMap() {
+		return new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+	}
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.json.JSONObject;
+import org.xml.sax.SAXException;
+
+import com.maxprograms.xml.Element;
+
+/**
+ * Read-through LRU cache of parsed TU headers and variants, limited to a
+ * number of TUs. Callers receive copies, so the cached elements never change.
+ */
+class TuCache {
+
+	static final int DEFAULT_SIZE = 4096;
+
+	// cached result of a variant that does not exist
+	private static final Element MISSING = new Element("tuv");
+
+	interface Loader {
+		Element load() throws SQLException, SAXException, IOException, ParserConfigurationException;
+	}
+
+	private static class Entry {
+		Element header;
+		Map<String, Element> tuvs = new HashMap<>();
+	}
+
+	private int capacity;
+	private Map<String, Entry> entries;
+	private AtomicLong hits;
+	private AtomicLong misses;
+	// changes when entries are invalidated, so that loads started before are not cached
+	private long version;
+
+	TuCache(int capacity) {
+		this.capacity = capacity;
+		entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > TuCache.this.capacity;
+			}
+		};
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+	}
+
+	/**
+	 * Returns a copy of the header of {@code tuid}, loading it when it is not
+	 * cached.
+	 */
+	Element getHeader(String tuid, Loader loader)
+			throws SQLException, SAXException, IOException, ParserConfigurationException {
+		long loading;
+		synchronized (this) {
+			Entry entry = entries.get(tuid);
+			if (entry != null && entry.header != null) {
+				hits.incrementAndGet();
+				return copy(entry.header);
+			}
+			loading = version;
+		}
+		misses.incrementAndGet();
+		Element header = loader.load();
+		synchronized (this) {
+			if (capacity > 0 && version == loading) {
+				entries.computeIfAbsent(tuid, k -> new Entry()).header = header;
+			}
+		}
+		return copy(header);
+	}
+
+	/**
+	 * Returns a copy of the variant of {@code tuid} in {@code lang}, or
+	 * {@code null} if there is none, loading it when it is not cached.
+	 */
+	Element getTuv(String tuid, String lang, Loader loader)
+			throws SQLException, SAXException, IOException, ParserConfigurationException {
+		long loading;
+		synchronized (this) {
+			Entry entry = entries.get(tuid);
+			if (entry != null && entry.tuvs.containsKey(lang)) {
+				hits.incrementAndGet();
+				Element tuv = entry.tuvs.get(lang);
+				return tuv == MISSING ? null : copy(tuv);
+			}
+			loading = version;
+		}
+		misses.incrementAndGet();
+		Element tuv = loader.load();
+		synchronized (this) {
+			if (capacity > 0 && version == loading) {
+				entries.computeIfAbsent(tuid, k -> new Entry()).tuvs.put(lang, tuv == null ? MISSING : tuv);
+			}
+		}
+		return tuv == null ? null : copy(tuv);
+	}
+
+	synchronized void invalidate(String tuid) {
+		entries.remove(tuid);
+		version++;
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		version++;
+	}
+
+	synchronized JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		stats.put("capacity", capacity);
+		stats.put("size", entries.size());
+		stats.put("hits", hits.get());
+		stats.put("misses", misses.get());
+		return stats;
+	}
+
+	private static Element copy(Element e) {
+		Element copy = new Element();
+		copy.clone(e);
+		return copy;
+	}
+}
@@ -14,25 +14,34 @@ package com.maxprograms.swordfish.tm;
 
 import java.io.File;
 import java.util.Set;
-import java.util.Vector;
 
 import com.maxprograms.xml.Element;
 
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
 
+/**
+ * Stores the TU data that is not in the SQLite tables: the attributes, props
+ * and notes of each TU, encoded with {@link TuHeader} and keyed by the TU
+ * ordinal, plus the projects, subjects and customers used in the memory.
+ */
 public class TuDatabase {
 
+	// previous format: serialized elements keyed by tuid.hashCode()
+	private static final String LEGACY_MAP = "tuvmap";
+
 	private DB mapdb;
-	private HTreeMap<Integer, Element> tumap;
+	private HTreeMap<Integer, byte[]> headers;
 	private Set<String> projects;
 	private Set<String> subjects;
 	private Set<String> customers;
 
 	public TuDatabase(File folder) {
 		mapdb = DBMaker.newFileDB(new File(folder, "tudata")).closeOnJvmShutdown().make();
-		tumap = mapdb.getHashMap("tuvmap");
+		headers = mapdb.createHashMap("tuheaders").keySerializer(Serializer.INTEGER)
+				.valueSerializer(Serializer.BYTE_ARRAY).makeOrGet();
 		projects = mapdb.getHashSet("projects");
 		subjects = mapdb.getHashSet("subjects");
 		customers = mapdb.getHashSet("customers");
@@ -50,26 +59,37 @@ public class TuDatabase {
 		mapdb.close();
 	}
 
-	public synchronized void store(String tuid, Element tu) {
-		tu.removeChild("tuv");
-		if (tu.getChildren().isEmpty()) {
-			tu.setContent(new Vector<>());
-		}
-		tumap.put(tuid.hashCode(), tu);
+	/**
+	 * Stores the header of {@code tu}; its variants are ignored.
+	 */
+	public synchronized void store(int ordinal, Element tu) {
+		headers.put(ordinal, TuHeader.encode(tu));
 	}
 
-	public Element getTu(String tuid) {
-		Element result = tumap.get(tuid.hashCode());
-		if (result == null) {
-			result = new Element("tu");
-			result.setAttribute("id", tuid);
-		} else {
-			// 确保返回的Element始终包含正确的ID
-			result.setAttribute("id", tuid);
-		}
+	/**
+	 * Returns a new element with the stored header of the TU, without variants.
+	 */
+	public Element getTu(int ordinal, String tuid) {
+		byte[] data = headers.get(ordinal);
+		Element result = data != null ? TuHeader.decode(data) : new Element("tu");
+		// 确保返回的Element始终包含正确的ID
+		result.setAttribute("id", tuid);
 		return result;
 	}
 
+	boolean hasLegacyData() {
+		return mapdb.exists(LEGACY_MAP);
+	}
+
+	Element getLegacyTu(String tuid) {
+		HTreeMap<Integer, Element> legacy = mapdb.getHashMap(LEGACY_MAP);
+		return legacy.get(tuid.hashCode());
+	}
+
+	void deleteLegacyData() {
+		mapdb.delete(LEGACY_MAP);
+	}
+
 	public void rollback() {
 		mapdb.rollback();
 	}
@@ -99,10 +119,10 @@ public class TuDatabase {
 	}
 
 	public Set<Integer> getKeys() {
-		return tumap.keySet();
+		return headers.keySet();
 	}
 
-	public void remove(String tuid) {
-		tumap.remove(tuid.hashCode());
+	public void remove(int ordinal) {
+		headers.remove(ordinal);
 	}
 }
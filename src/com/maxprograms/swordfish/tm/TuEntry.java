@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.util.List;
+import java.util.Vector;
+
+import com.maxprograms.xml.Element;
+
+/**
+ * TU ready to be written: the header with its properties, plus the text and
+ * n-grams of each variant. Variants with empty text remove the stored ones.
+ */
+class TuEntry {
+
+	String tuid;
+	Element tu;
+	String subject;
+	String customer;
+	String project;
+	List<Variant> variants = new Vector<>();
+
+	static class Variant {
+
+		String lang;
+		String seg;
+		String text;
+		int[] ngrams;
+
+		Variant(String lang, String seg, String text, int[] ngrams) {
+			this.lang = lang;
+			this.seg = seg;
+			this.text = text;
+			this.ngrams = ngrams;
+		}
+	}
+}
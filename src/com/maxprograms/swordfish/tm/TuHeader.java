@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.maxprograms.xml.Attribute;
+import com.maxprograms.xml.Element;
+import com.maxprograms.xml.TextNode;
+import com.maxprograms.xml.XMLNode;
+
+/**
+ * Binary form of a TU without its variants: the attributes of the
+ * {@code <tu>} element and its {@code <prop>} and {@code <note>} children.
+ * Counts and string lengths are written as unsigned varints and strings as
+ * UTF-8; comments and processing instructions are not kept.
+ */
+class TuHeader {
+
+	private static final byte TEXT = 0;
+	private static final byte ELEMENT = 1;
+
+	private TuHeader() {
+		// private for security
+	}
+
+	static byte[] encode(Element tu) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		writeAttributes(out, tu);
+		List<Element> children = tu.getChildren();
+		int count = 0;
+		for (int i = 0; i < children.size(); i++) {
+			if (!"tuv".equals(children.get(i).getName())) {
+				count++;
+			}
+		}
+		writeInt(out, count);
+		for (int i = 0; i < children.size(); i++) {
+			Element child = children.get(i);
+			if (!"tuv".equals(child.getName())) {
+				writeElement(out, child);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	static Element decode(byte[] data) {
+		Element tu = new Element("tu");
+		int[] pos = new int[1];
+		readAttributes(data, pos, tu);
+		int count = readInt(data, pos);
+		for (int i = 0; i < count; i++) {
+			tu.addContent(readElement(data, pos));
+		}
+		return tu;
+	}
+
+	private static void writeElement(ByteArrayOutputStream out, Element e) {
+		writeString(out, e.getName());
+		writeAttributes(out, e);
+		List<XMLNode> content = e.getContent();
+		int count = 0;
+		for (int i = 0; i < content.size(); i++) {
+			XMLNode node = content.get(i);
+			if (node instanceof TextNode || node instanceof Element) {
+				count++;
+			}
+		}
+		writeInt(out, count);
+		for (int i = 0; i < content.size(); i++) {
+			XMLNode node = content.get(i);
+			if (node instanceof TextNode text) {
+				out.write(TEXT);
+				writeString(out, text.getText());
+			} else if (node instanceof Element child) {
+				out.write(ELEMENT);
+				writeElement(out, child);
+			}
+		}
+	}
+
+	private static Element readElement(byte[] data, int[] pos) {
+		Element e = new Element(readString(data, pos));
+		readAttributes(data, pos, e);
+		int count = readInt(data, pos);
+		for (int i = 0; i < count; i++) {
+			if (data[pos[0]++] == TEXT) {
+				e.addContent(new TextNode(readString(data, pos)));
+			} else {
+				e.addContent(readElement(data, pos));
+			}
+		}
+		return e;
+	}
+
+	private static void writeAttributes(ByteArrayOutputStream out, Element e) {
+		List<Attribute> atts = e.getAttributes();
+		writeInt(out, atts.size());
+		for (int i = 0; i < atts.size(); i++) {
+			Attribute a = atts.get(i);
+			writeString(out, a.getName());
+			writeString(out, a.getValue());
+		}
+	}
+
+	private static void readAttributes(byte[] data, int[] pos, Element e) {
+		int count = readInt(data, pos);
+		for (int i = 0; i < count; i++) {
+			String name = readString(data, pos);
+			e.setAttribute(name, readString(data, pos));
+		}
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeInt(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static String readString(byte[] data, int[] pos) {
+		int length = readInt(data, pos);
+		String s = new String(data, pos[0], length, StandardCharsets.UTF_8);
+		pos[0] += length;
+		return s;
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readInt(byte[] data, int[] pos) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data[pos[0]++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+}
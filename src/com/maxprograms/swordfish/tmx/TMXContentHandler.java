@@ -12,12 +12,6 @@
 
 package com.maxprograms.swordfish.tmx;
 
-import java.io.IOException;
-import java.lang.System.Logger;
-import java.lang.System.Logger.Level;
-import java.net.URISyntaxException;
-import java.sql.SQLException;
-import java.text.MessageFormat;
 import java.util.Deque;
 import java.util.concurrent.ConcurrentLinkedDeque;
 
@@ -25,7 +19,6 @@ import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 
-import com.maxprograms.swordfish.tm.ITmEngine;
 import com.maxprograms.xml.Catalog;
 import com.maxprograms.xml.Document;
 import com.maxprograms.xml.Element;
@@ -33,16 +26,14 @@ import com.maxprograms.xml.IContentHandler;
 
 class TMXContentHandler implements IContentHandler {
 
-	protected static final Logger logger = System.getLogger(TMXContentHandler.class.getName());
-
 	private Element current;
 	private Deque<Element> stack;
 	private boolean inCDATA = false;
 	private int count;
-	private ITmEngine db;
+	private TuListener listener;
 
-	public TMXContentHandler(ITmEngine tmEngine) {
-		db = tmEngine;
+	public TMXContentHandler(TuListener listener) {
+		this.listener = listener;
 		stack = new ConcurrentLinkedDeque<>();
 	}
 
@@ -61,16 +52,7 @@ class TMXContentHandler implements IContentHandler {
 	@Override
 	public void endElement(String uri, String localName, String qName) throws SAXException {
 		if (localName.equals("tu")) {
-			try {
-				db.storeTu(current);
-				if (count % 500 == 0) {
-					db.commit();
-				}
-			} catch (IOException | SQLException | URISyntaxException e) {
-				// ignore
-				MessageFormat mf = new MessageFormat(Messages.getString("TMXContentHandler.0"));
-				logger.log(Level.WARNING, mf.format(new String[] { current.toString() }), e);
-			}
+			listener.tuRead(current);
 			count++;
 			current = null;
 			stack.clear();
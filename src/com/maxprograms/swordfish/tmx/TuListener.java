@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tmx;
+
+import org.xml.sax.SAXException;
+
+import com.maxprograms.xml.Element;
+
+/**
+ * Receives the TUs of a TMX file in document order.
+ */
+public interface TuListener {
+
+	/**
+	 * Called for each complete {@code <tu>}. Throwing stops the parser.
+	 */
+	void tuRead(Element tu) throws SAXException;
+}
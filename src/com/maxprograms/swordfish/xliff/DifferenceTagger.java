@@ -15,10 +15,8 @@ package com.maxprograms.swordfish.xliff;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.StringTokenizer;
-import java.util.Vector;
 
-import com.maxprograms.swordfish.tm.NGrams;
+import com.maxprograms.swordfish.tm.Tokenizer;
 
 public class DifferenceTagger {
 
@@ -50,8 +48,8 @@ public class DifferenceTagger {
 	}
 
 	public DifferenceTagger(String x, String y) {
-		xVector = buildWordList(x);
-		yVector = buildWordList(y);
+		xVector = Tokenizer.getTokens(x);
+		yVector = Tokenizer.getTokens(y);
 		matrix = new int[xVector.size() + 1][yVector.size() + 1];
 
 		buildMatrix();
@@ -132,73 +130,4 @@ public class DifferenceTagger {
 		}
 	}
 
-	private static List<String> buildWordList(String src) {
-		List<String> result = new Vector<>();
-		StringTokenizer tokenizer = new StringTokenizer(src, NGrams.TERM_SEPARATORS, true);
-		while (tokenizer.hasMoreElements()) {
-			String tk = tokenizer.nextToken();
-			StringBuilder word = new StringBuilder();
-			for (int i = 0; i < tk.length(); i++) {
-				if (isAsian(tk.charAt(i))) {
-					if (word.length() != 0) {
-						result.add(word.toString());
-						word.setLength(0);
-					}
-					result.add(tk.charAt(i) + "");
-				} else {
-					word.append(tk.charAt(i));
-				}
-			}
-			if (word.length() != 0) {
-				result.add(word.toString());
-			}
-		}
-		return result;
-	}
-
-	private static boolean isAsian(char c) {
-		if (c >= '\u0E01' && c <= '\u05EB') {
-			// Thai
-			return true;
-		}
-		if (c >= '\u0E81' && c <= '\u0EDD') {
-			// Lao
-			return true;
-		}
-		if (c >= '\u0F00' && c <= '\u0FB9') {
-			// Tibetan
-			return true;
-		}
-		if (c >= '\uAC00' && c <= '\uFFDC') {
-			// Korean
-			return true;
-		}
-		if (c >= '\u3041' && c <= '\u3357') {
-			// Japanese
-			return true;
-		}
-		if (c >= '\u3105' && c <= '\u3125') {
-			// Chinese BOPOMOFO
-			return true;
-		}
-		if (c >= '\u4E00' && c <= '\uFA2D') {
-			// CJK Ideographs
-			return true;
-		}
-		if (c >= '\u3000' && c <= '\u303F') {
-			// CJK Punctuation
-			return true;
-		}
-		if (c >= '\u3190' && c <= '\u33FE') {
-			// Ideographic Symbols
-			return true;
-		}
-		if (c >= '\uFE30' && c <= '\uFE4F') {
-			// CJK Compatibility forms
-			return true;
-		}
-		return (c >= '\uFF61' && c <= '\uFFDC');
-		// Halfwidth forms
-	}
-
 }
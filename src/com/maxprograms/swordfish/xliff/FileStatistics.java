@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.xliff;
+
+/**
+ * Segment, word and character counts of the files with the same name in a
+ * project, used in the statistics report.
+ */
+class FileStatistics {
+
+	int segments;
+	int words;
+	int chars;
+
+	int untranslatedSegments;
+	int untranslatedWords;
+	int untranslatedChars;
+
+	int translatedSegments;
+	int translatedWords;
+	int translatedChars;
+
+	int confirmedSegments;
+	int confirmedWords;
+	int confirmedChars;
+
+	int newSegments;
+	int newWords;
+	int intRepSegments;
+	int intRepWords;
+	int extRepSegments;
+	int extRepWords;
+	int segments100;
+	int words100;
+	int segments95;
+	int words95;
+	int segments85;
+	int words85;
+	int segments75;
+	int words75;
+	int segments50;
+	int words50;
+	int tags;
+
+	/**
+	 * Counts a segment.
+	 *
+	 * @param best       similarity of the best match of the segment, 0 if it
+	 *                   has none
+	 * @param repetition 0 if the segment is new, 1 if it repeats a previous
+	 *                   segment of the same file, 2 if it repeats a segment of a
+	 *                   previous file
+	 */
+	void add(int segmentWords, int segmentChars, int segmentTags, boolean translated, boolean confirmed, int best,
+			int repetition) {
+		segments++;
+		words += segmentWords;
+		chars += segmentChars;
+		tags += segmentTags;
+		if (translated) {
+			translatedSegments++;
+			translatedWords += segmentWords;
+			translatedChars += segmentChars;
+		} else {
+			untranslatedSegments++;
+			untranslatedWords += segmentWords;
+			untranslatedChars += segmentChars;
+		}
+		if (confirmed) {
+			confirmedSegments++;
+			confirmedWords += segmentWords;
+			confirmedChars += segmentChars;
+		}
+		if (best < 50) {
+			if (repetition == 1) {
+				intRepSegments++;
+				intRepWords += segmentWords;
+			} else if (repetition == 2) {
+				extRepSegments++;
+				extRepWords += segmentWords;
+			} else {
+				newSegments++;
+				newWords += segmentWords;
+			}
+		} else if (best == 100) {
+			segments100++;
+			words100 += segmentWords;
+		} else if (best >= 95) {
+			segments95++;
+			words95 += segmentWords;
+		} else if (best >= 85) {
+			segments85++;
+			words85 += segmentWords;
+		} else if (best >= 75) {
+			segments75++;
+			words75 += segmentWords;
+		} else {
+			segments50++;
+			words50 += segmentWords;
+		}
+	}
+}
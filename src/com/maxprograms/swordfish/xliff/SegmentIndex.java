@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2007 - 2025 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.xliff;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import com.maxprograms.swordfish.tm.Analyzer;
+
+/**
+ * In-memory index of the n-grams in the source text of the segments of a
+ * project, computed by the default {@link Analyzer} of the source language. It
+ * finds the segments that share enough n-grams with a text without reading all
+ * of them. Each segment gets a number when added; the numbers of removed or
+ * replaced segments are skipped until they are more than half of all numbers,
+ * then the index is compacted.
+ */
+class SegmentIndex {
+
+	// removed slots below this are never worth compacting
+	private static final int MIN_COMPACT = 1024;
+
+	private static class Postings {
+		int[] slots = new int[4];
+		int size;
+
+		void add(int slot) {
+			if (size == slots.length) {
+				int[] larger = new int[size * 2];
+				System.arraycopy(slots, 0, larger, 0, size);
+				slots = larger;
+			}
+			slots[size++] = slot;
+		}
+	}
+
+	private Analyzer analyzer;
+	private Map<Integer, Postings> postings;
+	// file, unit and segment of each slot, null when removed
+	private List<String[]> segments;
+	// slot of each segment, by unit
+	private Map<String, Map<String, Integer>> units;
+	private int removed;
+
+	SegmentIndex(Analyzer analyzer) {
+		this.analyzer = analyzer;
+		postings = new HashMap<>();
+		segments = new Vector<>();
+		units = new HashMap<>();
+	}
+
+	synchronized void add(String file, String unit, String segment, String text) {
+		remove(file, unit, segment);
+		int slot = segments.size();
+		segments.add(new String[] { file, unit, segment });
+		units.computeIfAbsent(unitKey(file, unit), k -> new HashMap<>()).put(segment, slot);
+		int[] ngrams = analyzer.getNGrams(text);
+		for (int i = 0; i < ngrams.length; i++) {
+			postings.computeIfAbsent(ngrams[i], k -> new Postings()).add(slot);
+		}
+	}
+
+	synchronized void remove(String file, String unit, String segment) {
+		Map<String, Integer> slots = units.get(unitKey(file, unit));
+		if (slots != null) {
+			Integer slot = slots.remove(segment);
+			if (slot != null) {
+				release(slot);
+			}
+		}
+	}
+
+	synchronized void removeUnit(String file, String unit) {
+		Map<String, Integer> slots = units.remove(unitKey(file, unit));
+		if (slots != null) {
+			Iterator<Integer> it = slots.values().iterator();
+			while (it.hasNext()) {
+				release(it.next());
+			}
+		}
+	}
+
+	private void release(int slot) {
+		segments.set(slot, null);
+		removed++;
+		if (removed >= MIN_COMPACT && removed * 2 > segments.size()) {
+			compact();
+		}
+	}
+
+	/**
+	 * Renumbers the remaining segments without gaps and drops the postings of
+	 * the removed ones.
+	 */
+	private void compact() {
+		int[] renumbered = new int[segments.size()];
+		List<String[]> remaining = new Vector<>();
+		for (int slot = 0; slot < renumbered.length; slot++) {
+			String[] segment = segments.get(slot);
+			if (segment != null) {
+				renumbered[slot] = remaining.size();
+				remaining.add(segment);
+			} else {
+				renumbered[slot] = -1;
+			}
+		}
+		Iterator<Postings> it = postings.values().iterator();
+		while (it.hasNext()) {
+			Postings list = it.next();
+			int size = 0;
+			for (int i = 0; i < list.size; i++) {
+				int slot = renumbered[list.slots[i]];
+				if (slot != -1) {
+					list.slots[size++] = slot;
+				}
+			}
+			if (size == 0) {
+				it.remove();
+				continue;
+			}
+			if (size < list.slots.length / 4) {
+				int[] smaller = new int[Math.max(4, size)];
+				System.arraycopy(list.slots, 0, smaller, 0, size);
+				list.slots = smaller;
+			}
+			list.size = size;
+		}
+		Iterator<Map<String, Integer>> ut = units.values().iterator();
+		while (ut.hasNext()) {
+			Map<String, Integer> slots = ut.next();
+			slots.replaceAll((segment, slot) -> renumbered[slot]);
+		}
+		segments = remaining;
+		removed = 0;
+	}
+
+	/**
+	 * Returns file, unit and segment of the segments that contain at least
+	 * {@code overlap}% of the n-grams of {@code text}, or {@code null} when the
+	 * text has no n-grams to compare.
+	 */
+	synchronized List<String[]> getCandidates(String text, int overlap) {
+		int[] ngrams = analyzer.getNGrams(text);
+		if (ngrams.length == 0) {
+			return null;
+		}
+		int[] counts = new int[segments.size()];
+		for (int i = 0; i < ngrams.length; i++) {
+			Postings list = postings.get(ngrams[i]);
+			if (list != null) {
+				for (int j = 0; j < list.size; j++) {
+					counts[list.slots[j]]++;
+				}
+			}
+		}
+		int min = Math.max(1, ngrams.length * overlap / 100);
+		List<String[]> result = new Vector<>();
+		for (int slot = 0; slot < counts.length; slot++) {
+			if (counts[slot] >= min && segments.get(slot) != null) {
+				result.add(segments.get(slot));
+			}
+		}
+		return result;
+	}
+
+	private static String unitKey(String file, String unit) {
+		return file + '\n' + unit;
+	}
+}
@@ -30,7 +30,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.MessageFormat;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
@@ -38,8 +40,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -51,7 +57,6 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.jsoup.Jsoup;
-import org.sqlite.Function;
 import org.xml.sax.SAXException;
 
 import com.maxprograms.converters.Join;
@@ -61,16 +66,20 @@ import com.maxprograms.languages.LanguageUtils;
 import com.maxprograms.stats.RepetitionAnalysis;
 import com.maxprograms.stats.SvgStats;
 import com.maxprograms.swordfish.Constants;
+import com.maxprograms.swordfish.EngineRegistry.Lease;
 import com.maxprograms.swordfish.GlossariesHandler;
 import com.maxprograms.swordfish.MemoriesHandler;
 import com.maxprograms.swordfish.TmsServer;
 import com.maxprograms.swordfish.am.MatchAssembler;
 import com.maxprograms.swordfish.am.Term;
+import com.maxprograms.swordfish.tm.Analyzers;
 import com.maxprograms.swordfish.tm.ITmEngine;
 import com.maxprograms.swordfish.tm.Match;
 import com.maxprograms.swordfish.tm.MatchQuality;
-import com.maxprograms.swordfish.tm.NGrams;
+import com.maxprograms.swordfish.tm.RegexpFunction;
 import com.maxprograms.swordfish.tm.TMUtils;
+import com.maxprograms.swordfish.tm.TextSearch;
+import com.maxprograms.swordfish.tm.Tokenizer;
 import com.maxprograms.xliff2.FromXliff2;
 import com.maxprograms.xml.CatalogBuilder;
 import com.maxprograms.xml.Document;
@@ -89,6 +98,9 @@ public class XliffStore {
 	Logger logger = System.getLogger(XliffStore.class.getName());
 
 	public static final int THRESHOLD = 60;
+	// % of shared n-grams for a segment to be checked in propagation, lower than
+	// THRESHOLD because changed words share part of their n-grams
+	private static final int MIN_OVERLAP = THRESHOLD / 2;
 	public static final int MAXTERMLENGTH = 5;
 	public static final int BATCHSIZE = 100;
 
@@ -150,9 +162,10 @@ public class XliffStore {
 	private int tag;
 	private Map<String, String> tagsMap;
 	private Map<String, Element> notesMap;
-
-	private static Pattern pattern;
-	private static String lastFilterText;
+	// memories with confirmed segments queued for storage
+	private Set<String> queuedMemories;
+	// n-grams of the segment sources, built on first propagation
+	private SegmentIndex segmentIndex;
 
 	public XliffStore(String xliffFile, String sourceLang, String targetLang)
 			throws SAXException, IOException, ParserConfigurationException, URISyntaxException, SQLException {
@@ -160,6 +173,7 @@ public class XliffStore {
 		this.xliffFile = xliffFile;
 		srcLang = sourceLang;
 		tgtLang = targetLang;
+		queuedMemories = Collections.synchronizedSet(new HashSet<>());
 
 		File xliff = new File(xliffFile);
 
@@ -181,18 +195,7 @@ public class XliffStore {
 		conn = DriverManager
 				.getConnection("jdbc:sqlite:" + database.getAbsolutePath().replace('\\', '/') + "/database.db");
 		conn.setAutoCommit(false);
-		Function.create(conn, "REGEXP", new Function() {
-			@Override
-			protected void xFunc() throws SQLException {
-				String expression = value_text(0);
-				String value = value_text(1);
-				if (value == null) {
-					value = "";
-				}
-				Pattern pat = Pattern.compile(expression);
-				result(pat.matcher(value).find() ? 1 : 0);
-			}
-		});
+		RegexpFunction.register(conn);
 		if (needsLoading) {
 			createTables();
 		}
@@ -234,6 +237,11 @@ public class XliffStore {
 			}
 			conn.commit();
 		}
+		addSourceHash();
+
+		createIndexes();
+		createFullText();
+		createStatistics();
 
 		getUnitData = conn.prepareStatement("SELECT data, compressed FROM units WHERE file=? AND unitId=?");
 		getSource = conn.prepareStatement(
@@ -349,8 +357,143 @@ public class XliffStore {
 		conn.commit();
 	}
 
+	/**
+	 * Adds the {@code sourceHash} column to projects created before it existed.
+	 */
+	private void addSourceHash() throws SQLException, SAXException, IOException, ParserConfigurationException {
+		try (Statement st = conn.createStatement()) {
+			try (ResultSet rs = st.executeQuery("PRAGMA table_info(segments);")) {
+				while (rs.next()) {
+					if ("sourceHash".equals(rs.getString(2))) {
+						return;
+					}
+				}
+			}
+			st.execute("ALTER TABLE segments ADD COLUMN sourceHash INTEGER DEFAULT 0;");
+			try (PreparedStatement prep = conn
+					.prepareStatement("UPDATE segments SET sourceHash = ? WHERE rowid = ?;")) {
+				try (ResultSet rs = st.executeQuery("SELECT rowid, source FROM segments WHERE type='S';")) {
+					while (rs.next()) {
+						prep.setLong(1, sourceHash(XliffUtils.buildElement(rs.getString(2))));
+						prep.setLong(2, rs.getLong(1));
+						prep.execute();
+					}
+				}
+			}
+		}
+		conn.commit();
+	}
+
+	private void createIndexes() throws SQLException {
+		// sort orders and keyset paging used by getSegments
+		String[] indexes = { "CREATE INDEX IF NOT EXISTS segments_order ON segments (type, file, child)",
+				"CREATE INDEX IF NOT EXISTS segments_source ON segments (type, sourceText)",
+				"CREATE INDEX IF NOT EXISTS segments_target ON segments (type, targetText)",
+				"CREATE INDEX IF NOT EXISTS segments_state ON segments (type, state)",
+				// exact repetitions
+				"CREATE INDEX IF NOT EXISTS segments_hash ON segments (type, sourceHash)" };
+		try (Statement create = conn.createStatement()) {
+			for (String index : indexes) {
+				create.execute(index);
+			}
+		}
+		conn.commit();
+	}
+
+	private void createFullText() throws SQLException {
+		// trigram index of source and target text for filters, kept in sync by triggers
+		try (Statement create = conn.createStatement()) {
+			try (ResultSet rs = create
+					.executeQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='segments_fts'")) {
+				if (rs.next()) {
+					return;
+				}
+			}
+			create.execute(
+					"CREATE VIRTUAL TABLE segments_fts USING fts5(sourceText, targetText, content='segments', content_rowid='rowid', tokenize='trigram')");
+			create.execute("""
+					CREATE TRIGGER segments_fts_insert AFTER INSERT ON segments BEGIN
+					INSERT INTO segments_fts (rowid, sourceText, targetText) VALUES (new.rowid, new.sourceText, new.targetText);
+					END;""");
+			create.execute("""
+					CREATE TRIGGER segments_fts_delete AFTER DELETE ON segments BEGIN
+					INSERT INTO segments_fts (segments_fts, rowid, sourceText, targetText) VALUES ('delete', old.rowid, old.sourceText, old.targetText);
+					END;""");
+			create.execute("""
+					CREATE TRIGGER segments_fts_update AFTER UPDATE OF sourceText, targetText ON segments BEGIN
+					INSERT INTO segments_fts (segments_fts, rowid, sourceText, targetText) VALUES ('delete', old.rowid, old.sourceText, old.targetText);
+					INSERT INTO segments_fts (rowid, sourceText, targetText) VALUES (new.rowid, new.sourceText, new.targetText);
+					END;""");
+			create.execute("INSERT INTO segments_fts (segments_fts) VALUES ('rebuild')");
+		}
+		conn.commit();
+	}
+
+	private void createStatistics() throws SQLException {
+		// running totals of segments by file and status, kept in sync by triggers
+		try (Statement create = conn.createStatement()) {
+			try (ResultSet rs = create
+					.executeQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='statistics'")) {
+				if (rs.next()) {
+					return;
+				}
+			}
+			create.execute("""
+					CREATE TABLE statistics (
+					    file VARCHAR(50),
+					    state VARCHAR(12),
+					    translate CHAR(1),
+					    translated INTEGER,
+					    segments INTEGER NOT NULL DEFAULT 0,
+					    words INTEGER NOT NULL DEFAULT 0,
+					    chars INTEGER NOT NULL DEFAULT 0,
+					    PRIMARY KEY(file, state, translate, translated)
+					    );""");
+			String add = """
+					INSERT INTO statistics (file, state, translate, translated, segments, words, chars)
+					VALUES (new.file, new.state, new.translate, new.targetText <> '', 1, new.words, new.chars)
+					ON CONFLICT(file, state, translate, translated) DO UPDATE SET segments = segments + excluded.segments,
+					words = words + excluded.words, chars = chars + excluded.chars;
+					""";
+			String subtract = """
+					INSERT INTO statistics (file, state, translate, translated, segments, words, chars)
+					VALUES (old.file, old.state, old.translate, old.targetText <> '', -1, -old.words, -old.chars)
+					ON CONFLICT(file, state, translate, translated) DO UPDATE SET segments = segments + excluded.segments,
+					words = words + excluded.words, chars = chars + excluded.chars;
+					""";
+			create.execute("CREATE TRIGGER statistics_insert AFTER INSERT ON segments WHEN new.type = 'S' BEGIN\n" + add
+					+ "END;");
+			create.execute("CREATE TRIGGER statistics_delete AFTER DELETE ON segments WHEN old.type = 'S' BEGIN\n"
+					+ subtract + "END;");
+			create.execute(
+					"CREATE TRIGGER statistics_update AFTER UPDATE OF state, translate, targetText, words, chars ON segments WHEN new.type = 'S' BEGIN\n"
+							+ subtract + add + "END;");
+		}
+		conn.commit();
+		computeStatistics();
+	}
+
+	/**
+	 * Recomputes the running totals used by {@link #getTranslationStatus()} from
+	 * the segments table.
+	 */
+	public synchronized void rebuildStatistics() throws SQLException {
+		computeStatistics();
+	}
+
+	private void computeStatistics() throws SQLException {
+		try (Statement rebuild = conn.createStatement()) {
+			rebuild.execute("DELETE FROM statistics");
+			rebuild.execute("""
+					INSERT INTO statistics (file, state, translate, translated, segments, words, chars)
+					SELECT file, state, translate, targetText <> '', COUNT(*), SUM(words), SUM(chars) FROM segments
+					WHERE type = 'S' GROUP BY file, state, translate, targetText <> ''""");
+		}
+		conn.commit();
+	}
+
 	private void prepareInsertSegment() throws SQLException {
-		String sql = "INSERT INTO segments (file, unitId, segId, type, state, child, translate, tags, space, source, sourceText, target, targetText, words, chars) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+		String sql = "INSERT INTO segments (file, unitId, segId, type, state, child, translate, tags, space, source, sourceText, target, targetText, words, chars, sourceHash) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 		insertSegmentStmt = conn.prepareStatement(sql);
 	}
 
@@ -551,7 +694,11 @@ public class XliffStore {
 		insertSegmentStmt.setString(13, (target != null ? XliffUtils.pureText(target) : ""));
 		insertSegmentStmt.setInt(14, type.equals("S") ? RepetitionAnalysis.wordCount(pureSource, srcLang) : 0);
 		insertSegmentStmt.setInt(15, type.equals("S") ? (pureSource.length() - spaces(pureSource)) : 0);
+		insertSegmentStmt.setLong(16, type.equals("S") ? sourceHash(source) : 0);
 		insertSegmentStmt.execute();
+		if (segmentIndex != null && type.equals("S")) {
+			segmentIndex.add(file, unit, segment, pureSource);
+		}
 	}
 
 	private int spaces(String text) {
@@ -620,41 +767,54 @@ public class XliffStore {
 			boolean caseSensitiveFilter, boolean regExp, boolean showUntranslated, boolean showTranslated,
 			boolean showConfirmed, String sortOption, boolean sortDesc)
 			throws SQLException, SAXException, IOException, ParserConfigurationException, DataFormatException {
+		return getSegments(start, count, filterText, filterLanguage, caseSensitiveFilter, regExp, false,
+				showUntranslated, showTranslated, showConfirmed, sortOption, sortDesc, null);
+	}
+
+	/**
+	 * Same as the other {@code getSegments}, but when {@code cursor} holds the
+	 * position returned by a previous call with the same sort options, the page
+	 * starts right after that position and {@code start} is ignored. On return
+	 * {@code cursor} holds the position of the last segment of the page.
+	 * Regular expression filters use Unicode character classes when
+	 * {@code unicode} is set.
+	 */
+	public synchronized List<JSONObject> getSegments(int start, int count, String filterText, String filterLanguage,
+			boolean caseSensitiveFilter, boolean regExp, boolean unicode, boolean showUntranslated,
+			boolean showTranslated, boolean showConfirmed, String sortOption, boolean sortDesc, JSONObject cursor)
+			throws SQLException, SAXException, IOException, ParserConfigurationException, DataFormatException {
 		List<JSONObject> result = new Vector<>();
+		String sortColumn = "NULL";
+		if (sortOption.equals("source")) {
+			sortColumn = "s.sourceText";
+		}
+		if (sortOption.equals("target")) {
+			sortColumn = "s.targetText";
+		}
+		if (sortOption.equals("status")) {
+			sortColumn = "s.state";
+		}
 		StringBuilder queryBuilder = new StringBuilder();
 		queryBuilder.append(
-				"SELECT file, unitId, segId, child, source, target, tags, state, space, translate, idx FROM segments WHERE type='S'");
+				"SELECT s.file, s.unitId, s.segId, s.child, s.source, s.target, s.tags, s.state, s.space, s.translate, s.idx, s.rowid, ");
+		queryBuilder.append(sortColumn);
+		queryBuilder.append(", (SELECT CASE WHEN m.type='" + Constants.MT + "' OR m.type='" + Constants.AM
+				+ "' THEN 0 ELSE m.similarity END FROM matches m WHERE m.file=s.file AND m.unitId=s.unitId AND m.segId=s.segId ORDER BY m.similarity DESC LIMIT 1)");
+		queryBuilder.append(
+				", EXISTS (SELECT 1 FROM notes n WHERE n.file=s.file AND n.unitId=s.unitId AND n.segId=s.segId)");
+		queryBuilder.append(
+				", CASE WHEN s.tags > 0 THEN u.data END, u.compressed FROM segments s LEFT JOIN units u ON u.file=s.file AND u.unitId=s.unitId WHERE s.type='S'");
+		List<String> filterParams = new Vector<>();
 		if (!filterText.isEmpty()) {
 			if (regExp) {
 				try {
-					Pattern.compile(filterText);
+					RegexpFunction.compile(filterText, RegexpFunction.flags(caseSensitiveFilter, unicode));
 				} catch (PatternSyntaxException e) {
 					throw new IOException("Invalid regular expression");
 				}
-				if ("source".equals(filterLanguage)) {
-					queryBuilder.append(" AND sourceText REGEXP '");
-				} else {
-					queryBuilder.append(" AND targetText REGEXP '");
-				}
-				queryBuilder.append(filterText);
-				queryBuilder.append("'");
-			} else {
-				if (caseSensitiveFilter) {
-					if ("source".equals(filterLanguage)) {
-						queryBuilder.append(" AND sourceText GLOB '*");
-					} else {
-						queryBuilder.append(" AND targetText GLOB '*");
-					}
-				} else {
-					if ("source".equals(filterLanguage)) {
-						queryBuilder.append(" AND sourceText LIKE '%");
-					} else {
-						queryBuilder.append(" AND targetText LIKE '%");
-					}
-				}
-				queryBuilder.append(escape(filterText));
-				queryBuilder.append(caseSensitiveFilter ? "*'" : "%'");
 			}
+			String column = "source".equals(filterLanguage) ? "sourceText" : "targetText";
+			appendTextFilter(queryBuilder, filterParams, column, filterText, caseSensitiveFilter, regExp, unicode);
 			if (!showUntranslated) {
 				queryBuilder.append(" AND state <> 'initial'");
 			}
@@ -665,94 +825,151 @@ public class XliffStore {
 				queryBuilder.append(" AND state <> 'final'");
 			}
 		}
+		boolean sorted = sortOption.equals("none") || !sortColumn.equals("NULL");
+		boolean seek = sorted && cursor != null && cursor.has("rowid") && sortOption.equals(cursor.optString("sort"))
+				&& sortDesc == cursor.optBoolean("desc");
+		// rowid breaks ties, so that every position in the order is unique
 		if (sortOption.equals("none")) {
-			queryBuilder.append(" ORDER BY file, child ");
-		}
-		if (sortOption.equals("source")) {
-			queryBuilder.append(" ORDER BY sourceText");
-		}
-		if (sortOption.equals("target")) {
-			queryBuilder.append(" ORDER BY targetText");
+			if (seek) {
+				queryBuilder.append(sortDesc ? " AND (s.file > ? OR (s.file = ? AND (s.child, s.rowid) < (?, ?)))"
+						: " AND (s.file, s.child, s.rowid) > (?, ?, ?)");
+			}
+			queryBuilder.append(sortDesc ? " ORDER BY s.file, s.child DESC, s.rowid DESC" : " ORDER BY s.file, s.child, s.rowid");
+		} else if (sorted) {
+			if (seek) {
+				queryBuilder.append(" AND (");
+				queryBuilder.append(sortColumn);
+				queryBuilder.append(sortDesc ? ", s.rowid) < (?, ?)" : ", s.rowid) > (?, ?)");
+			}
+			queryBuilder.append(" ORDER BY ");
+			queryBuilder.append(sortColumn);
+			queryBuilder.append(sortDesc ? " DESC, s.rowid DESC" : ", s.rowid");
+		}
+		queryBuilder.append(" LIMIT ? OFFSET ?");
+		try (PreparedStatement prep = conn.prepareStatement(queryBuilder.toString())) {
+			int param = 1;
+			for (int i = 0; i < filterParams.size(); i++) {
+				prep.setString(param++, filterParams.get(i));
+			}
+			if (seek) {
+				if (sortOption.equals("none")) {
+					prep.setString(param++, cursor.getString("file"));
+					if (sortDesc) {
+						prep.setString(param++, cursor.getString("file"));
+					}
+					prep.setInt(param++, cursor.getInt("child"));
+				} else {
+					prep.setString(param++, cursor.getString("key"));
+				}
+				prep.setLong(param++, cursor.getLong("rowid"));
+			}
+			prep.setInt(param++, count);
+			prep.setInt(param, seek ? 0 : start);
+			try (ResultSet rs = prep.executeQuery()) {
+				while (rs.next()) {
+					result.add(getSegmentRow(rs, filterText, caseSensitiveFilter, regExp, unicode));
+					if (sorted && cursor != null) {
+						cursor.put("sort", sortOption);
+						cursor.put("desc", sortDesc);
+						cursor.put("file", rs.getString(1));
+						cursor.put("child", rs.getInt(4));
+						cursor.put("rowid", rs.getLong(12));
+						cursor.put("key", rs.getString(13) != null ? rs.getString(13) : "");
+					}
+				}
+			}
 		}
-		if (sortOption.equals("status")) {
-			queryBuilder.append(" ORDER BY state");
+		return result;
+	}
+
+	/**
+	 * Appends the conditions that select the segments containing {@code text}
+	 * in {@code column}. Texts with at least one trigram are looked up in the
+	 * full text index first.
+	 */
+	private static void appendTextFilter(StringBuilder sql, List<String> params, String column, String text,
+			boolean caseSensitive, boolean regExp, boolean unicode) {
+		String phrase = TextSearch.matchPhrase(column, regExp ? TextSearch.requiredLiteral(text) : text);
+		if (phrase != null) {
+			sql.append(" AND s.rowid IN (SELECT rowid FROM segments_fts WHERE segments_fts MATCH ?)");
+			params.add(phrase);
+		}
+		if (regExp) {
+			sql.append(" AND REGEXP(?, s.");
+			sql.append(column);
+			sql.append(", ");
+			sql.append(RegexpFunction.flags(caseSensitive, unicode));
+			sql.append(')');
+			params.add(text);
+			return;
 		}
-		if (sortDesc) {
-			queryBuilder.append(" DESC ");
+		sql.append(" AND s.");
+		sql.append(column);
+		if (caseSensitive) {
+			sql.append(" GLOB ?");
+			params.add(TextSearch.globPattern(text));
+		} else {
+			sql.append(" LIKE ? ESCAPE '\\'");
+			params.add(TextSearch.likePattern(text));
 		}
-		queryBuilder.append(" LIMIT ");
-		queryBuilder.append(count);
-		queryBuilder.append(" OFFSET ");
-		queryBuilder.append(start);
-		try (ResultSet rs = stmt.executeQuery(queryBuilder.toString())) {
-			while (rs.next()) {
-				String file = rs.getString(1);
-				String unit = rs.getString(2);
-				String segId = rs.getString(3);
-				String src = rs.getString(5);
-				String tgt = rs.getString(6);
-				int tags = rs.getInt(7);
-				String segState = rs.getString(8);
-				boolean segPreserve = "Y".equals(rs.getString(9));
-				boolean segTranslate = "Y".equals(rs.getString(10));
-				int idx = rs.getInt(11);
+	}
 
-				JSONObject tagsData = new JSONObject();
-				if (tags > 0) {
-					tagsData = getUnitData(file, unit);
-				}
-				Element source = XliffUtils.buildElement(src);
+	private JSONObject getSegmentRow(ResultSet rs, String filterText, boolean caseSensitiveFilter, boolean regExp,
+			boolean unicode) throws SQLException, SAXException, IOException, ParserConfigurationException, DataFormatException {
+		String file = rs.getString(1);
+		String unit = rs.getString(2);
+		String segId = rs.getString(3);
+		String src = rs.getString(5);
+		String tgt = rs.getString(6);
+		int tags = rs.getInt(7);
+		String segState = rs.getString(8);
+		boolean segPreserve = "Y".equals(rs.getString(9));
+		boolean segTranslate = "Y".equals(rs.getString(10));
+		int idx = rs.getInt(11);
+		int match = rs.getInt(14);
+		boolean notes = rs.getBoolean(15);
 
-				Element target = new Element("target");
-				if (source.hasAttribute("xml:space")) {
-					target.setAttribute("xml:space", source.getAttributeValue("xml:space"));
-				}
-				if (tgt != null && !tgt.isBlank()) {
-					target = XliffUtils.buildElement(tgt);
-				}
-
-				boolean checkErrors = segTranslate
-						&& (segState.equals("final") || (segState.equals("translated") && acceptUnconfirmed));
+		JSONObject tagsData = new JSONObject();
+		if (tags > 0) {
+			String data = rs.getString(16);
+			tagsData = parseUnitData(data == null ? "" : data, "Y".equals(rs.getString(17)));
+		}
+		Element source = XliffUtils.buildElement(src);
 
-				boolean tagErrors = false;
-				boolean spaceErrors = false;
-				if (checkErrors) {
-					tagErrors = hasTagErrors(source, target);
-					spaceErrors = hasSpaceErrors(source, target);
-				}
-				tagsMap = new Hashtable<>();
-				JSONObject row = new JSONObject();
-				row.put("index", idx);
-				row.put("file", file);
-				row.put("unit", unit);
-				row.put("segment", segId);
-				row.put("state", segState);
-				row.put("translate", segTranslate);
-				row.put("preserve", segPreserve);
-				tag = 1;
-				row.put("source", addHtmlTags(source, filterText, caseSensitiveFilter, regExp, tagsData, segPreserve));
-				row.put("target", addHtmlTags(target, filterText, caseSensitiveFilter, regExp, tagsData, segPreserve));
-				row.put("match", getBestMatch(file, unit, segId));
-				row.put("hasNotes", hasNotes(file, unit, segId));
-				row.put("tagErrors", tagErrors);
-				row.put("spaceErrors", spaceErrors);
-				result.add(row);
-			}
+		Element target = new Element("target");
+		if (source.hasAttribute("xml:space")) {
+			target.setAttribute("xml:space", source.getAttributeValue("xml:space"));
+		}
+		if (tgt != null && !tgt.isBlank()) {
+			target = XliffUtils.buildElement(tgt);
 		}
-		return result;
-	}
 
-	private boolean hasNotes(String file, String unit, String segId) throws SQLException {
-		boolean result = false;
-		getNotesStmt.setString(1, file);
-		getNotesStmt.setString(2, unit);
-		getNotesStmt.setString(3, segId);
-		try (ResultSet rs = getNotesStmt.executeQuery()) {
-			while (rs.next()) {
-				result = true;
-			}
+		boolean checkErrors = segTranslate
+				&& (segState.equals("final") || (segState.equals("translated") && acceptUnconfirmed));
+
+		boolean tagErrors = false;
+		boolean spaceErrors = false;
+		if (checkErrors) {
+			tagErrors = hasTagErrors(source, target);
+			spaceErrors = hasSpaceErrors(source, target);
 		}
-		return result;
+		tagsMap = new Hashtable<>();
+		JSONObject row = new JSONObject();
+		row.put("index", idx);
+		row.put("file", file);
+		row.put("unit", unit);
+		row.put("segment", segId);
+		row.put("state", segState);
+		row.put("translate", segTranslate);
+		row.put("preserve", segPreserve);
+		tag = 1;
+		row.put("source", addHtmlTags(source, filterText, caseSensitiveFilter, regExp, unicode, tagsData, segPreserve));
+		row.put("target", addHtmlTags(target, filterText, caseSensitiveFilter, regExp, unicode, tagsData, segPreserve));
+		row.put("match", match);
+		row.put("hasNotes", notes);
+		row.put("tagErrors", tagErrors);
+		row.put("spaceErrors", spaceErrors);
+		return row;
 	}
 
 	public JSONArray getNotes(String file, String unit, String segId) throws SQLException {
@@ -891,6 +1108,10 @@ public class XliffStore {
 				compressed = "Y".equals(rs.getString(2));
 			}
 		}
+		return parseUnitData(data, compressed);
+	}
+
+	private static JSONObject parseUnitData(String data, boolean compressed) throws DataFormatException {
 		if (data.isEmpty()) {
 			return new JSONObject();
 		}
@@ -901,6 +1122,15 @@ public class XliffStore {
 	}
 
 	public void close() throws SQLException {
+		List<String> memories = new Vector<>(queuedMemories);
+		for (int i = 0; i < memories.size(); i++) {
+			try {
+				MemoriesHandler.flush(memories.get(i));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
 		getUnitData.close();
 		getSource.close();
 		getTargetStmt.close();
@@ -1035,26 +1265,18 @@ public class XliffStore {
 		result.put("target", addHtmlTags(target, originalData));
 
 		if (!memory.equals(Constants.NONE) && !pureTarget.isBlank() && confirm) {
-			new Thread(() -> {
-				try {
-					StringBuilder key = new StringBuilder();
-					key.append(xliffFile.hashCode());
-					key.append('-');
-					key.append(file);
-					key.append('-');
-					key.append(unit);
-					key.append('-');
-					key.append(segment);
-					String[] context = getSurroundingSegments(file, unit, segment);
-					MemoriesHandler.open(memory);
-					ITmEngine engine = MemoriesHandler.getEngine(memory);
-					engine.storeTu(XliffUtils.toTu(key.toString(), source, target, tags, srcLang, tgtLang, context));
-					engine.commit();
-					MemoriesHandler.close(memory);
-				} catch (IOException | SQLException | URISyntaxException e) {
-					logger.log(Level.ERROR, e);
-				}
-			}).start();
+			StringBuilder key = new StringBuilder();
+			key.append(xliffFile.hashCode());
+			key.append('-');
+			key.append(file);
+			key.append('-');
+			key.append(unit);
+			key.append('-');
+			key.append(segment);
+			String[] context = getSurroundingSegments(file, unit, segment);
+			MemoriesHandler.storeLater(memory,
+					XliffUtils.toTu(key.toString(), source, target, tags, srcLang, tgtLang, context));
+			queuedMemories.add(memory);
 		}
 		return result;
 	}
@@ -1162,15 +1384,19 @@ public class XliffStore {
 		source.setContent(updated.getContent());
 		pureSource = XliffUtils.pureText(source);
 
-		String sql = "UPDATE segments SET source=?, sourceText=? WHERE file=? AND unitId=? AND segId=?";
+		String sql = "UPDATE segments SET source=?, sourceText=?, sourceHash=? WHERE file=? AND unitId=? AND segId=?";
 		try (PreparedStatement prep = conn.prepareStatement(sql)) {
 			prep.setString(1, source.toString());
 			prep.setString(2, pureSource);
-			prep.setString(3, file);
-			prep.setString(4, unit);
-			prep.setString(5, segment);
+			prep.setLong(3, sourceHash(source));
+			prep.setString(4, file);
+			prep.setString(5, unit);
+			prep.setString(6, segment);
 			prep.executeUpdate();
 		}
+		if (segmentIndex != null) {
+			segmentIndex.add(file, unit, segment, pureSource);
+		}
 	}
 
 	public synchronized JSONObject setTarget(JSONObject json)
@@ -1194,7 +1420,7 @@ public class XliffStore {
 		}
 		JSONObject tagsData = getUnitData(file, unit);
 		boolean preserve = "preserve".equals(tgt.getAttributeValue("xml:space", "default"));
-		String tagged = addHtmlTags(tgt, "", false, false, tagsData, preserve);
+		String tagged = addHtmlTags(tgt, "", false, false, false, tagsData, preserve);
 		result.put("target", tagged);
 		return result;
 	}
@@ -1205,23 +1431,15 @@ public class XliffStore {
 		int translated = 0;
 		int confirmed = 0;
 		int segments = 0;
-		String sql = "SELECT SUM(words), COUNT(*) FROM segments WHERE type='S'";
+		String sql = """
+				SELECT SUM(words), SUM(segments), SUM(CASE WHEN state = 'final' THEN words ELSE 0 END),
+				SUM(CASE WHEN state <> 'initial' THEN words ELSE 0 END) FROM statistics""";
 		try (ResultSet rs = stmt.executeQuery(sql)) {
 			while (rs.next()) {
 				total = rs.getInt(1);
 				segments = rs.getInt(2);
-			}
-		}
-		sql = "SELECT SUM(words) FROM segments WHERE state='final' AND type='S'";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				confirmed = rs.getInt(1);
-			}
-		}
-		sql = "SELECT SUM(words) FROM segments WHERE state <> 'initial' AND type='S'";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				translated = rs.getInt(1);
+				confirmed = rs.getInt(3);
+				translated = rs.getInt(4);
 			}
 		}
 		int percentage = 0;
@@ -1262,62 +1480,135 @@ public class XliffStore {
 			throws SQLException, SAXException, IOException, ParserConfigurationException, DataFormatException {
 		JSONArray result = new JSONArray();
 		String dummySource = dummyTagger(source);
-		String query = "SELECT file, unitId, segId, source, state, tags, space FROM segments WHERE translate='Y' AND type='S' AND state <> 'final' ";
-		try (ResultSet rs = stmt.executeQuery(query)) {
-			while (rs.next()) {
-				Element candidate = XliffUtils.buildElement(rs.getString(4));
-				int differences = tagDifferences(source, candidate);
-				String dummy = dummyTagger(candidate);
-				int similarity = MatchQuality.similarity(dummySource, dummy) - differences;
-				if (similarity > THRESHOLD) {
-					String file = rs.getString(1);
-					String unit = rs.getString(2);
-					String segment = rs.getString(3);
-					Element sourceElement = XliffUtils.buildElement(rs.getString(4));
-					int tags = rs.getInt(6);
-					JSONObject tagsData = new JSONObject();
-					if (tags > 0) {
-						tagsData = getUnitData(file, unit);
-					}
-					if (similarity == 100 && Constants.INITIAL.equals(state)) {
-						tagsMap = new Hashtable<>();
-						tag = 1;
-						addHtmlTags(candidate, "", false, false, tagsData, true);
-
-						JSONObject row = new JSONObject();
-						row.put("file", file);
-						row.put("unit", unit);
-						row.put("segment", segment);
-						row.put("match", 100);
-						tag = 1;
-						String translation = addHtmlTags(target, "", false, false, tagsData, true);
-						row.put("target", translation);
-						row.put("status", autoConfirm ? Constants.FINAL : Constants.TRANSLATED);
-						result.put(row);
-
-						Element translated = XliffUtils.buildElement("<target>" + translation + "</target>");
-						translated.setAttribute("xml:space", preserve ? "preserve" : "default");
-						translated.setContent(target.getContent());
-						if (!translated.getChildren().isEmpty()) {
-							translated = fixTags(sourceElement, source, target);
-						}
-						updateTarget(file, unit, segment, translated, XliffUtils.pureText(translated), autoConfirm);
-					}
-					insertMatch(file, unit, segment, "Self", Constants.TM, similarity, source, target, tagsData);
-					conn.commit();
-					int best = getBestMatch(file, unit, segment);
+		List<String[]> rows = getPropagationCandidates(source);
+		for (int i = 0; i < rows.size(); i++) {
+			String[] candidateRow = rows.get(i);
+			Element candidate = XliffUtils.buildElement(candidateRow[3]);
+			int differences = tagDifferences(source, candidate);
+			String dummy = dummyTagger(candidate);
+			int similarity;
+			if (candidateRow[5] != null && dummy.equals(dummySource)) {
+				// same hash and same text, only the number of tags can differ
+				similarity = 100 - differences;
+			} else {
+				similarity = MatchQuality.similarity(dummySource, dummy) - differences;
+			}
+			if (similarity > THRESHOLD) {
+				String file = candidateRow[0];
+				String unit = candidateRow[1];
+				String segment = candidateRow[2];
+				Element sourceElement = XliffUtils.buildElement(candidateRow[3]);
+				int tags = Integer.parseInt(candidateRow[4]);
+				JSONObject tagsData = new JSONObject();
+				if (tags > 0) {
+					tagsData = getUnitData(file, unit);
+				}
+				if (similarity == 100 && Constants.INITIAL.equals(state)) {
+					tagsMap = new Hashtable<>();
+					tag = 1;
+					addHtmlTags(candidate, "", false, false, false, tagsData, true);
+
 					JSONObject row = new JSONObject();
 					row.put("file", file);
 					row.put("unit", unit);
 					row.put("segment", segment);
-					row.put("match", best);
+					row.put("match", 100);
+					tag = 1;
+					String translation = addHtmlTags(target, "", false, false, false, tagsData, true);
+					row.put("target", translation);
+					row.put("status", autoConfirm ? Constants.FINAL : Constants.TRANSLATED);
 					result.put(row);
+
+					Element translated = XliffUtils.buildElement("<target>" + translation + "</target>");
+					translated.setAttribute("xml:space", preserve ? "preserve" : "default");
+					translated.setContent(target.getContent());
+					if (!translated.getChildren().isEmpty()) {
+						translated = fixTags(sourceElement, source, target);
+					}
+					updateTarget(file, unit, segment, translated, XliffUtils.pureText(translated), autoConfirm);
+				}
+				insertMatch(file, unit, segment, "Self", Constants.TM, similarity, source, target, tagsData);
+				conn.commit();
+				int best = getBestMatch(file, unit, segment);
+				JSONObject row = new JSONObject();
+				row.put("file", file);
+				row.put("unit", unit);
+				row.put("segment", segment);
+				row.put("match", best);
+				result.put(row);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns file, unit, segment, source and tag count of the unconfirmed
+	 * segments that may be similar to {@code source}. Exact repetitions come
+	 * first, found by their hash and marked with "100".
+	 */
+	private List<String[]> getPropagationCandidates(Element source) throws SQLException {
+		List<String[]> result = new Vector<>();
+		Set<String> exact = new HashSet<>();
+		String sql = "SELECT file, unitId, segId, source, tags FROM segments WHERE type='S' AND sourceHash=? AND translate='Y' AND state <> 'final'";
+		try (PreparedStatement prep = conn.prepareStatement(sql)) {
+			prep.setLong(1, sourceHash(source));
+			try (ResultSet rs = prep.executeQuery()) {
+				while (rs.next()) {
+					result.add(new String[] { rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+							"" + rs.getInt(5), "100" });
+					exact.add(rs.getString(1) + '\n' + rs.getString(2) + '\n' + rs.getString(3));
+				}
+			}
+		}
+		List<String[]> candidates = getSegmentIndex().getCandidates(XliffUtils.pureText(source), MIN_OVERLAP);
+		if (candidates == null) {
+			// no text to compare, like a source with only tags
+			String query = "SELECT file, unitId, segId, source, tags FROM segments WHERE translate='Y' AND type='S' AND state <> 'final' ";
+			try (ResultSet rs = stmt.executeQuery(query)) {
+				while (rs.next()) {
+					if (!exact.contains(rs.getString(1) + '\n' + rs.getString(2) + '\n' + rs.getString(3))) {
+						result.add(new String[] { rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+								"" + rs.getInt(5), null });
+					}
+				}
+			}
+			return result;
+		}
+		sql = "SELECT source, tags FROM segments WHERE file=? AND unitId=? AND segId=? AND translate='Y' AND type='S' AND state <> 'final'";
+		try (PreparedStatement prep = conn.prepareStatement(sql)) {
+			for (int i = 0; i < candidates.size(); i++) {
+				String[] candidate = candidates.get(i);
+				if (exact.contains(candidate[0] + '\n' + candidate[1] + '\n' + candidate[2])) {
+					continue;
+				}
+				prep.setString(1, candidate[0]);
+				prep.setString(2, candidate[1]);
+				prep.setString(3, candidate[2]);
+				try (ResultSet rs = prep.executeQuery()) {
+					while (rs.next()) {
+						result.add(new String[] { candidate[0], candidate[1], candidate[2], rs.getString(1),
+								"" + rs.getInt(2), null });
+					}
 				}
 			}
 		}
 		return result;
 	}
 
+	private SegmentIndex getSegmentIndex() throws SQLException {
+		if (segmentIndex == null) {
+			SegmentIndex built = new SegmentIndex(Analyzers.getDefaultAnalyzer(srcLang));
+			String sql = "SELECT file, unitId, segId, sourceText FROM segments WHERE type='S'";
+			try (ResultSet rs = stmt.executeQuery(sql)) {
+				while (rs.next()) {
+					built.add(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4));
+				}
+			}
+			segmentIndex = built;
+		}
+		return segmentIndex;
+	}
+
 	private int tagDifferences(Element source, Element candidate) {
 		int a = source.getChildren().size();
 		int b = candidate.getChildren().size();
@@ -1436,6 +1727,20 @@ public class XliffStore {
 		return result;
 	}
 
+	/**
+	 * Returns a 64 bit FNV-1a hash of the text of {@code source} with its tags
+	 * replaced by placeholders. Exact repetitions have the same hash.
+	 */
+	private long sourceHash(Element source) {
+		String text = dummyTagger(source);
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < text.length(); i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
 	private String dummyTagger(Element e) {
 		if (e == null) {
 			return "";
@@ -1609,7 +1914,7 @@ public class XliffStore {
 	}
 
 	private String addHtmlTags(Element seg, String filterText, boolean caseSensitive, boolean regExp,
-			JSONObject originalData, boolean preserve) throws IOException {
+			boolean unicode, JSONObject originalData, boolean preserve) throws IOException {
 		if (seg == null) {
 			return "";
 		}
@@ -1623,10 +1928,8 @@ public class XliffStore {
 					text.append(XliffUtils.cleanString(((TextNode) o).getText()));
 				} else {
 					if (regExp) {
-						if (pattern == null || !filterText.equals(lastFilterText)) {
-							pattern = Pattern.compile(filterText);
-							lastFilterText = filterText;
-						}
+						Pattern pattern = RegexpFunction.compile(filterText,
+								RegexpFunction.flags(caseSensitive, unicode));
 						String s = ((TextNode) o).getText();
 						Matcher matcher = pattern.matcher(s);
 						if (matcher.find()) {
@@ -2600,71 +2903,67 @@ public class XliffStore {
 		}
 
 		String memory = json.getString("memory");
-		MemoriesHandler.open(memory);
-		ITmEngine tmEngine = MemoriesHandler.getEngine(memory);
-		List<Match> tmMatches = tmEngine.searchTranslation(pure, srcLang, tgtLang, 60, false);
-		MemoriesHandler.close(memory);
+		List<Match> tmMatches;
+		try (Lease lease = MemoriesHandler.lease(memory)) {
+			tmMatches = lease.getEngine().searchTranslation(pure, srcLang, tgtLang, 60, false);
+		}
 
 		String glossary = json.getString("glossary");
-		GlossariesHandler.openGlossary(glossary);
-		ITmEngine glossEngine = GlossariesHandler.getEngine(glossary);
-
-		Match match = MatchAssembler.assembleMatch(pure, tmMatches, glossEngine, srcLang, tgtLang);
-		if (match != null) {
-			Element matchSource = match.getSource();
-			matchSource.setAttribute("xml:lang", srcLang);
-			Element matchTarget = match.getTarget();
-			matchTarget.setAttribute("xml:lang", tgtLang);
-			insertMatch(file, unit, segment, "Auto", Constants.AM, match.getSimilarity(), matchSource, matchTarget,
-					new JSONObject());
-			conn.commit();
+		try (Lease glossLease = GlossariesHandler.lease(glossary)) {
+			ITmEngine glossEngine = glossLease.getEngine();
+			Match match = MatchAssembler.assembleMatch(pure, tmMatches, glossEngine, srcLang, tgtLang);
+			if (match != null) {
+				Element matchSource = match.getSource();
+				matchSource.setAttribute("xml:lang", srcLang);
+				Element matchTarget = match.getTarget();
+				matchTarget.setAttribute("xml:lang", tgtLang);
+				insertMatch(file, unit, segment, "Auto", Constants.AM, match.getSimilarity(), matchSource,
+						matchTarget, new JSONObject());
+				conn.commit();
+			}
 		}
-		GlossariesHandler.closeGlossary(glossary);
 	}
 
 	public void assembleMatchesAll(JSONObject json)
 			throws IOException, SQLException, SAXException, ParserConfigurationException, URISyntaxException {
 
 		String memory = json.getString("memory");
-		MemoriesHandler.open(memory);
-		ITmEngine tmEngine = MemoriesHandler.getEngine(memory);
-
 		String glossary = json.getString("glossary");
-		GlossariesHandler.openGlossary(glossary);
-		ITmEngine glossEngine = GlossariesHandler.getEngine(glossary);
+		try (Lease lease = MemoriesHandler.lease(memory); Lease glossLease = GlossariesHandler.lease(glossary)) {
+			ITmEngine tmEngine = lease.getEngine();
+			ITmEngine glossEngine = glossLease.getEngine();
 
-		String sql = "SELECT file, unitId, segId, sourceText FROM segments WHERE state <> 'final'";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String file = rs.getString(1);
-				String unit = rs.getString(2);
-				String segment = rs.getString(3);
-				String pure = rs.getString(4);
-				try {
-					List<Match> tmMatches = tmEngine.searchTranslation(pure, srcLang, tgtLang, 60, false);
-					Match match = MatchAssembler.assembleMatch(pure, tmMatches, glossEngine, srcLang, tgtLang);
-					if (match != null) {
-						Element matchSource = match.getSource();
-						matchSource.setAttribute("xml:lang", srcLang);
-						Element matchTarget = match.getTarget();
-						matchTarget.setAttribute("xml:lang", tgtLang);
-						insertMatch(file, unit, segment, "Auto", Constants.AM, match.getSimilarity(), matchSource,
-								matchTarget, new JSONObject());
-						conn.commit();
+			String sql = "SELECT file, unitId, segId, sourceText FROM segments WHERE state <> 'final'";
+			try (ResultSet rs = stmt.executeQuery(sql)) {
+				while (rs.next()) {
+					String file = rs.getString(1);
+					String unit = rs.getString(2);
+					String segment = rs.getString(3);
+					String pure = rs.getString(4);
+					try {
+						List<Match> tmMatches = tmEngine.searchTranslation(pure, srcLang, tgtLang, 60, false);
+						Match match = MatchAssembler.assembleMatch(pure, tmMatches, glossEngine, srcLang, tgtLang);
+						if (match != null) {
+							Element matchSource = match.getSource();
+							matchSource.setAttribute("xml:lang", srcLang);
+							Element matchTarget = match.getTarget();
+							matchTarget.setAttribute("xml:lang", tgtLang);
+							insertMatch(file, unit, segment, "Auto", Constants.AM, match.getSimilarity(), matchSource,
+									matchTarget, new JSONObject());
+							conn.commit();
+						}
+					} catch (IOException | ParserConfigurationException | SAXException | SQLException ex) {
+						// Ignore errors in individual segments
+						JSONObject errorSegment = new JSONObject();
+						errorSegment.put("file", file);
+						errorSegment.put("unit", unit);
+						errorSegment.put("segment", segment);
+						MessageFormat mf = new MessageFormat(Messages.getString("XliffStore.5"));
+						logger.log(Level.WARNING, mf.format(new String[] { ex.getMessage(), errorSegment.toString() }));
 					}
-				} catch (IOException | ParserConfigurationException | SAXException | SQLException ex) {
-					// Ignore errors in individual segments
-					JSONObject errorSegment = new JSONObject();
-					errorSegment.put("file", file);
-					errorSegment.put("unit", unit);
-					errorSegment.put("segment", segment);
-					MessageFormat mf = new MessageFormat(Messages.getString("XliffStore.5"));
-					logger.log(Level.WARNING, mf.format(new String[] { ex.getMessage(), errorSegment.toString() }));
 				}
 			}
 		}
-		MemoriesHandler.close(memory);
-		GlossariesHandler.closeGlossary(glossary);
 	}
 
 	public JSONArray tmTranslate(JSONObject json) throws SAXException, IOException, ParserConfigurationException,
@@ -2687,9 +2986,10 @@ public class XliffStore {
 		}
 		Element original = XliffUtils.buildElement(src);
 		String memoryName = MemoriesHandler.getName(memory);
-		MemoriesHandler.open(memory);
-		ITmEngine engine = MemoriesHandler.getEngine(memory);
-		List<Match> matches = engine.searchTranslation(pure, srcLang, tgtLang, 60, caseSensitiveMatches);
+		List<Match> matches;
+		try (Lease lease = MemoriesHandler.lease(memory)) {
+			matches = lease.getEngine().searchTranslation(pure, srcLang, tgtLang, 60, caseSensitiveMatches);
+		}
 		for (int i = 0; i < matches.size(); i++) {
 			Match m = matches.get(i);
 			XliffUtils.setTags(new JSONObject());
@@ -2703,78 +3003,107 @@ public class XliffStore {
 			insertMatch(file, unit, segment, memoryName, Constants.TM, similarity, matchSource, matchTarget, obj);
 			conn.commit();
 		}
-		MemoriesHandler.close(memory);
 		return getTaggedtMatches(json);
 	}
 
 	public int tmTranslateAll(String memory, int penalization, Map<String, JSONObject> processes, String processId)
 			throws IOException, SQLException, SAXException, ParserConfigurationException, URISyntaxException {
 		String memoryName = MemoriesHandler.getName(memory);
-		MemoriesHandler.open(memory);
-		ITmEngine engine = MemoriesHandler.getEngine(memory);
-		String sql = "SELECT COUNT(*) FROM segments WHERE type = 'S' AND state <> 'final'";
-		int total = 0;
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				total = rs.getInt(1);
+		try (Lease lease = MemoriesHandler.lease(memory)) {
+			ITmEngine engine = lease.getEngine();
+			String sql = "SELECT COUNT(*) FROM segments WHERE type = 'S' AND state <> 'final'";
+			int total = 0;
+			try (ResultSet rs = stmt.executeQuery(sql)) {
+				while (rs.next()) {
+					total = rs.getInt(1);
+				}
 			}
+			if (total == 0) {
+				return 0;
+			}
+			// batches are read and stored here, lookups run in parallel
+			int workers = Runtime.getRuntime().availableProcessors();
+			Deque<Future<JSONArray>> pending = new ArrayDeque<>();
+			int processed = 0;
+			int done = 0;
+			long last = 0l;
+			boolean more = true;
+			try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				while (more || !pending.isEmpty()) {
+					while (more && pending.size() < workers * 2) {
+						JSONArray array = new JSONArray();
+						last = readBatch(last, array);
+						if (array.isEmpty()) {
+							more = false;
+							break;
+						}
+						JSONObject params = new JSONObject();
+						params.put("srcLang", srcLang);
+						params.put("tgtLang", tgtLang);
+						params.put("caseSensitiveMatches", caseSensitiveMatches);
+						params.put("segments", array);
+						pending.add(executor.submit(() -> engine.batchTranslate(params)));
+					}
+					if (pending.isEmpty()) {
+						break;
+					}
+					JSONArray translations = getTranslations(pending);
+					processed += storeMatches(translations, memoryName, penalization);
+					done += translations.length();
+					int percentage = Math.round(done * 100f / total);
+					if (percentage == 100) {
+						percentage = 99;
+					}
+					processes.get(processId).put("percentage", percentage);
+				}
+			}
+			return processed;
 		}
-		if (total == 0) {
-			return 0;
-		}
-		int processed = 0;
-		int offset = 0;
-		do {
-			processed += translateBatch(offset, engine, memoryName, penalization);
-			int percentage = Math.round(offset * 100f / total);
-			if (percentage == 100) {
-				percentage = 99;
+	}
+
+	private static JSONArray getTranslations(Deque<Future<JSONArray>> pending) throws IOException {
+		try {
+			return pending.poll().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e.getMessage(), e);
+		} catch (ExecutionException e) {
+			Iterator<Future<JSONArray>> it = pending.iterator();
+			while (it.hasNext()) {
+				it.next().cancel(true);
 			}
-			processes.get(processId).put("percentage", percentage);
-			offset += BATCHSIZE;
-		} while (offset < total);
-		MemoriesHandler.close(memory);
-		return processed;
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
 	}
 
-	private synchronized int translateBatch(int offset, ITmEngine engine, String memoryName, int penalization)
-			throws IOException, SQLException, SAXException, ParserConfigurationException, URISyntaxException {
-		StringBuilder sb = new StringBuilder();
-		sb.append(
-				"SELECT file, unitId, segId, source, sourceText, target FROM segments WHERE type = 'S' AND state <> 'final' LIMIT ");
-		sb.append(BATCHSIZE);
-		sb.append(" OFFSET ");
-		sb.append(offset);
-		JSONObject params = new JSONObject();
-		JSONArray array = new JSONArray();
-		try (Statement prepared = conn.createStatement()) {
-			try (ResultSet rs = prepared.executeQuery(sb.toString())) {
-				params.put("srcLang", srcLang);
-				params.put("tgtLang", tgtLang);
-				params.put("caseSensitiveMatches", caseSensitiveMatches);
+	/**
+	 * Reads the next segments to translate, using the rowid of the last
+	 * segment read as position.
+	 *
+	 * @return the rowid of the last segment added to {@code array}
+	 */
+	private synchronized long readBatch(long after, JSONArray array) throws SQLException {
+		long last = after;
+		String sql = "SELECT rowid, file, unitId, segId, sourceText FROM segments WHERE type = 'S' AND state <> 'final' AND rowid > ? ORDER BY rowid LIMIT ?";
+		try (PreparedStatement prepared = conn.prepareStatement(sql)) {
+			prepared.setLong(1, after);
+			prepared.setInt(2, BATCHSIZE);
+			try (ResultSet rs = prepared.executeQuery()) {
 				while (rs.next()) {
-					String file = rs.getString(1);
-					String unit = rs.getString(2);
-					String segment = rs.getString(3);
-					String pure = rs.getString(5);
+					last = rs.getLong(1);
 					JSONObject json = new JSONObject();
-					json.put("file", file);
-					json.put("unit", unit);
-					json.put("segment", segment);
-					json.put("pure", pure);
+					json.put("file", rs.getString(2));
+					json.put("unit", rs.getString(3));
+					json.put("segment", rs.getString(4));
+					json.put("pure", rs.getString(5));
 					array.put(json);
-					if (array.length() == BATCHSIZE) {
-						break;
-					}
 				}
-				params.put("segments", array);
 			}
 		}
-		JSONArray translations = engine.batchTranslate(params);
-		return storeMatches(translations, memoryName, penalization);
+		return last;
 	}
 
-	private int storeMatches(JSONArray translations, String memoryName, int penalization)
+	private synchronized int storeMatches(JSONArray translations, String memoryName, int penalization)
 			throws SAXException, IOException, ParserConfigurationException, SQLException {
 		int count = 0;
 		for (int i = 0; i < translations.length(); i++) {
@@ -2818,10 +3147,10 @@ public class XliffStore {
 						}
 					}
 				}
-				conn.commit();
 				count++;
 			}
 		}
+		conn.commit();
 		return count;
 	}
 
@@ -2953,49 +3282,56 @@ public class XliffStore {
 			conn.commit();
 			return;
 		}
-		MemoriesHandler.open(memory);
-		ITmEngine engine = MemoriesHandler.getEngine(memory);
-		String sql = "SELECT file, unitId, segId FROM segments WHERE state<>'final' AND type='S' AND targetText<>'' AND translate='Y'";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			try (PreparedStatement updateSegment = conn
-					.prepareStatement("UPDATE segments SET state='final' WHERE file=? AND unitId=? AND segId=?")) {
-
-				while (rs.next()) {
-					String file = rs.getString(1);
-					String unit = rs.getString(2);
-					String segment = rs.getString(3);
-
-					updateSegment.setString(1, file);
-					updateSegment.setString(2, unit);
-					updateSegment.setString(3, segment);
-					updateSegment.executeUpdate();
-
-					getSegment.setString(1, file);
-					getSegment.setString(2, unit);
-					getSegment.setString(3, segment);
+		try {
+			// segments confirmed before must not overwrite the ones stored here
+			MemoriesHandler.flush(memory);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		try (Lease lease = MemoriesHandler.lease(memory)) {
+			ITmEngine engine = lease.getEngine();
+			String sql = "SELECT file, unitId, segId FROM segments WHERE state<>'final' AND type='S' AND targetText<>'' AND translate='Y'";
+			try (ResultSet rs = stmt.executeQuery(sql)) {
+				try (PreparedStatement updateSegment = conn
+						.prepareStatement("UPDATE segments SET state='final' WHERE file=? AND unitId=? AND segId=?")) {
 
-					try (ResultSet rs2 = getSegment.executeQuery()) {
-						while (rs2.next()) {
-							Element source = XliffUtils.buildElement(rs2.getString(1));
-							Element target = XliffUtils.buildElement(rs2.getString(2));
-							Map<String, String> tags = getTags(source);
-							String[] context = getSurroundingSegments(file, unit, segment);
-							StringBuilder key = new StringBuilder();
-							key.append(xliffFile.hashCode());
-							key.append('-');
-							key.append(file);
-							key.append('-');
-							key.append(unit);
-							key.append('-');
-							key.append(segment);
-							engine.storeTu(
-									XliffUtils.toTu(key.toString(), source, target, tags, srcLang, tgtLang, context));
+					while (rs.next()) {
+						String file = rs.getString(1);
+						String unit = rs.getString(2);
+						String segment = rs.getString(3);
+
+						updateSegment.setString(1, file);
+						updateSegment.setString(2, unit);
+						updateSegment.setString(3, segment);
+						updateSegment.executeUpdate();
+
+						getSegment.setString(1, file);
+						getSegment.setString(2, unit);
+						getSegment.setString(3, segment);
+
+						try (ResultSet rs2 = getSegment.executeQuery()) {
+							while (rs2.next()) {
+								Element source = XliffUtils.buildElement(rs2.getString(1));
+								Element target = XliffUtils.buildElement(rs2.getString(2));
+								Map<String, String> tags = getTags(source);
+								String[] context = getSurroundingSegments(file, unit, segment);
+								StringBuilder key = new StringBuilder();
+								key.append(xliffFile.hashCode());
+								key.append('-');
+								key.append(file);
+								key.append('-');
+								key.append(unit);
+								key.append('-');
+								key.append(segment);
+								engine.storeTu(XliffUtils.toTu(key.toString(), source, target, tags, srcLang, tgtLang,
+										context));
+							}
 						}
 					}
 				}
 			}
 		}
-		MemoriesHandler.close(memory);
 		conn.commit();
 	}
 
@@ -3038,243 +3374,9 @@ public class XliffStore {
 	public String generateStatistics(String projectName)
 			throws SQLException, SAXException, IOException, ParserConfigurationException, URISyntaxException {
 		getPreferences();
-		updateXliff();
+		Map<String, FileStatistics> statistics = getFileStatistics();
 		File file = new File(xliffFile);
 
-		Map<String, JSONObject> map = new HashMap<>();
-		Map<String, Set<String>> filesMap = new HashMap<>();
-
-		String sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type='S' GROUP BY file";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String fileId = rs.getString(1);
-				JSONObject json = new JSONObject();
-				int words = rs.getInt(2);
-				int chars = rs.getInt(3);
-				int segments = rs.getInt(4);
-				json.put("file", fileId);
-				json.put("words", words);
-				json.put("chars", chars);
-				json.put("segments", segments);
-				map.put(fileId, json);
-			}
-		}
-
-		sql = "SELECT id, name FROM files";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String id = rs.getString(1);
-				String name = rs.getString(2);
-				map.get(id).put("name", name);
-				if (filesMap.containsKey(name)) {
-					Set<String> ids = filesMap.get(name);
-					ids.add(id);
-					filesMap.put(name, ids);
-				} else {
-					Set<String> ids = new TreeSet<>();
-					ids.add(id);
-					filesMap.put(name, ids);
-				}
-			}
-		}
-
-		sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND targettext = '' GROUP BY file";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String fileId = rs.getString(1);
-				int untranslated = rs.getInt(2);
-				int untranslatedChars = rs.getInt(3);
-				int untranslatedSegments = rs.getInt(4);
-				map.get(fileId).put("untranslated", untranslated);
-				map.get(fileId).put("untranslatedChars", untranslatedChars);
-				map.get(fileId).put("untranslatedSegments", untranslatedSegments);
-			}
-		}
-
-		sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND targettext <> '' GROUP BY file";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String fileId = rs.getString(1);
-				int translated = rs.getInt(2);
-				int translatedChars = rs.getInt(3);
-				int translatedSegments = rs.getInt(4);
-				map.get(fileId).put("translated", translated);
-				map.get(fileId).put("translatedChars", translatedChars);
-				map.get(fileId).put("translatedSegments", translatedSegments);
-			}
-		}
-
-		sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND state = 'final' GROUP BY file";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String fileId = rs.getString(1);
-				int confirmed = rs.getInt(2);
-				int confirmedChars = rs.getInt(3);
-				int confirmedSegments = rs.getInt(4);
-				map.get(fileId).put("confirmed", confirmed);
-				map.get(fileId).put("confirmedChars", confirmedChars);
-				map.get(fileId).put("confirmedSegments", confirmedSegments);
-			}
-		}
-
-		Map<String, JSONObject> statusMap = new HashMap<>();
-		Set<String> currentFileSegments = null;
-		Set<String> otherFileSegments = new TreeSet<>();
-
-		sql = "SELECT MAX(similarity) FROM matches WHERE file = ? AND unitid = ? AND segid = ?";
-		try (PreparedStatement st = conn.prepareStatement(sql)) {
-			String currentFileId = "";
-			JSONObject json = null;
-			sql = "SELECT file, unitid, segid, source, words,tags FROM segments WHERE type = 'S' ORDER BY file, unitid, segid";
-			try (ResultSet rs = stmt.executeQuery(sql)) {
-				while (rs.next()) {
-					String fileId = rs.getString(1);
-					String unitId = rs.getString(2);
-					String segId = rs.getString(3);
-					String source = rs.getString(4);
-					int words = rs.getInt(5);
-					int tags = rs.getInt(6);
-					if (!currentFileId.equals(fileId)) {
-						json = new JSONObject();
-						json.put("newSegments", 0);
-						json.put("100Segments", 0);
-						json.put("95Segments", 0);
-						json.put("85Segments", 0);
-						json.put("75Segments", 0);
-						json.put("50Segments", 0);
-						json.put("intRepSegment", 0);
-						json.put("extRepSegment", 0);
-						json.put("newWords", 0);
-						json.put("100Words", 0);
-						json.put("95Words", 0);
-						json.put("85Words", 0);
-						json.put("75Words", 0);
-						json.put("50Words", 0);
-						json.put("tags", 0);
-						json.put("intRep", 0);
-						json.put("extRep", 0);
-						statusMap.put(fileId, json);
-						currentFileId = fileId;
-						if (currentFileSegments != null) {
-							otherFileSegments.addAll(currentFileSegments);
-						}
-						currentFileSegments = new TreeSet<>();
-					}
-					json.put("tags", json.getInt("tags") + tags);
-					st.setString(1, fileId);
-					st.setString(2, unitId);
-					st.setString(3, segId);
-					int max = 0;
-					try (ResultSet rs2 = st.executeQuery()) {
-						while (rs2.next()) {
-							max = rs2.getInt(1);
-						}
-					}
-					if (max < 50) {
-						if (currentFileSegments.contains(source)) {
-							json.put("intRepSegment", json.getInt("intRepSegment") + 1);
-							json.put("intRep", json.getInt("intRep") + words);
-						} else if (otherFileSegments.contains(source)) {
-							json.put("extRepSegment", json.getInt("extRepSegment") + 1);
-							json.put("extRep", json.getInt("extRep") + words);
-						} else {
-							json.put("newSegments", json.getInt("newSegments") + 1);
-							json.put("newWords", json.getInt("newWords") + words);
-						}
-					}
-					currentFileSegments.add(source);
-					if (max == 100) {
-						json.put("100Segments", json.getInt("100Segments") + 1);
-						json.put("100Words", json.getInt("100Words") + words);
-					}
-					if (max >= 95 && max <= 99) {
-						json.put("95Segments", json.getInt("95Segments") + 1);
-						json.put("95Words", json.getInt("95Words") + words);
-					}
-					if (max >= 85 && max <= 94) {
-						json.put("85Segments", json.getInt("85Segments") + 1);
-						json.put("85Words", json.getInt("85Words") + words);
-					}
-					if (max >= 75 && max <= 84) {
-						json.put("75Segments", json.getInt("75Segments") + 1);
-						json.put("75Words", json.getInt("75Words") + words);
-					}
-					if (max >= 50 && max <= 74) {
-						json.put("50Segments", json.getInt("50Segments") + 1);
-						json.put("50Words", json.getInt("50Words") + words);
-					}
-				}
-			}
-		}
-
-		sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND translate = 'N' GROUP BY file";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String fileId = rs.getString(1);
-				int locked = rs.getInt(2);
-				int lockedChars = rs.getInt(3);
-				int confirmedSegments = rs.getInt(4);
-				map.get(fileId).put("locked", locked);
-				map.get(fileId).put("lockedChars", lockedChars);
-				map.get(fileId).put("lockedSegments", confirmedSegments);
-			}
-		}
-
-		Set<String> keys = map.keySet();
-		Iterator<String> it = keys.iterator();
-		while (it.hasNext()) {
-			String key = it.next();
-			JSONObject json = map.get(key);
-			if (!json.has("untranslated")) {
-				json.put("untranslated", 0);
-				map.put(key, json);
-			}
-			if (!json.has("translated")) {
-				json.put("translated", 0);
-				map.put(key, json);
-			}
-			if (!json.has("translatedChars")) {
-				json.put("translatedChars", 0);
-				map.put(key, json);
-			}
-			if (!json.has("confirmed")) {
-				json.put("confirmed", 0);
-				map.put(key, json);
-			}
-			if (!json.has("confirmedChars")) {
-				json.put("confirmedChars", 0);
-				map.put(key, json);
-			}
-			if (!json.has("translatedSegments")) {
-				json.put("translatedSegments", 0);
-				map.put(key, json);
-			}
-			if (!json.has("untranslatedSegments")) {
-				json.put("untranslatedSegments", 0);
-				map.put(key, json);
-			}
-			if (!json.has("untranslatedChars")) {
-				json.put("untranslatedChars", 0);
-				map.put(key, json);
-			}
-			if (!json.has("confirmedSegments")) {
-				json.put("confirmedSegments", 0);
-				map.put(key, json);
-			}
-			if (!json.has("locked")) {
-				json.put("locked", 0);
-				map.put(key, json);
-			}
-			if (!json.has("lockedChars")) {
-				json.put("lockedChars", 0);
-				map.put(key, json);
-			}
-			if (!json.has("lockedSegments")) {
-				json.put("lockedSegments", 0);
-				map.put(key, json);
-			}
-		}
-
 		String css = "";
 		try (InputStream is = XliffStore.class.getResourceAsStream("styles.css")) {
 			StringBuffer sb = new StringBuffer();
@@ -3308,9 +3410,8 @@ public class XliffStore {
 
 			writeString(out, "<h1>" + XMLUtils.cleanText(projectName) + "</h1>\n");
 
-			Set<String> files = new TreeSet<>();
-			files.addAll(filesMap.keySet());
-			it = files.iterator();
+			Set<String> files = statistics.keySet();
+			Iterator<String> it = files.iterator();
 			int count = 1;
 
 			int projectNew = 0;
@@ -3334,30 +3435,15 @@ public class XliffStore {
 					+ "</th><th>" + Messages.getString("XliffStore.12") + "</th></tr>\n");
 			while (it.hasNext()) {
 				String fileName = it.next();
-				Set<String> set = filesMap.get(fileName);
-				Iterator<String> st = set.iterator();
-
-				int newSegments = 0;
-				int intRep = 0;
-				int extRep = 0;
-				int segments100 = 0;
-				int segments95 = 0;
-				int segments85 = 0;
-				int segments75 = 0;
-				int segments50 = 0;
-
-				while (st.hasNext()) {
-					String key = st.next();
-					JSONObject json = statusMap.get(key);
-					newSegments += json.getInt("newSegments");
-					intRep += json.getInt("intRepSegment");
-					extRep += json.getInt("extRepSegment");
-					segments100 += json.getInt("100Segments");
-					segments95 += json.getInt("95Segments");
-					segments85 += json.getInt("85Segments");
-					segments75 += json.getInt("75Segments");
-					segments50 += json.getInt("50Segments");
-				}
+				FileStatistics stats = statistics.get(fileName);
+				int newSegments = stats.newSegments;
+				int intRep = stats.intRepSegments;
+				int extRep = stats.extRepSegments;
+				int segments100 = stats.segments100;
+				int segments95 = stats.segments95;
+				int segments85 = stats.segments85;
+				int segments75 = stats.segments75;
+				int segments50 = stats.segments50;
 				writeString(out, "<tr>");
 				writeString(out, "<td class='center'>" + count++ + "</td>");
 				writeString(out, "<td class='left'>" + XMLUtils.cleanText(fileName) + "</td>");
@@ -3420,32 +3506,16 @@ public class XliffStore {
 					+ "</th></tr>\n");
 			while (it.hasNext()) {
 				String fileName = it.next();
-				Set<String> set = filesMap.get(fileName);
-				Iterator<String> st = set.iterator();
-
-				int newSegments = 0;
-				int intRep = 0;
-				int extRep = 0;
-				int segments100 = 0;
-				int segments95 = 0;
-				int segments85 = 0;
-				int segments75 = 0;
-				int segments50 = 0;
-				int tags = 0;
-
-				while (st.hasNext()) {
-					String key = st.next();
-					JSONObject json = statusMap.get(key);
-					newSegments += json.getInt("newWords");
-					intRep += json.getInt("intRep");
-					extRep += json.getInt("extRep");
-					segments100 += json.getInt("100Words");
-					segments95 += json.getInt("95Words");
-					segments85 += json.getInt("85Words");
-					segments75 += json.getInt("75Words");
-					segments50 += json.getInt("50Words");
-					tags += json.getInt("tags");
-				}
+				FileStatistics stats = statistics.get(fileName);
+				int newSegments = stats.newWords;
+				int intRep = stats.intRepWords;
+				int extRep = stats.extRepWords;
+				int segments100 = stats.words100;
+				int segments95 = stats.words95;
+				int segments85 = stats.words85;
+				int segments75 = stats.words75;
+				int segments50 = stats.words50;
+				int tags = stats.tags;
 				writeString(out, "<tr>");
 				writeString(out, "<td class='center'>" + count++ + "</td>");
 				writeString(out, "<td class='left'>" + XMLUtils.cleanText(fileName) + "</td>");
@@ -3514,20 +3584,11 @@ public class XliffStore {
 							+ "</th></tr>\n");
 			while (it.hasNext()) {
 				String fileName = it.next();
-				Set<String> set = filesMap.get(fileName);
-				Iterator<String> st = set.iterator();
-				int fileSegments = 0;
-				int fileTranslated = 0;
-				int fileUntranslated = 0;
-				int fileConfirmed = 0;
-				while (st.hasNext()) {
-					String key = st.next();
-					JSONObject json = map.get(key);
-					fileSegments += json.getInt("segments");
-					fileTranslated += json.getInt("translatedSegments");
-					fileUntranslated += json.getInt("untranslatedSegments");
-					fileConfirmed += json.getInt("confirmedSegments");
-				}
+				FileStatistics stats = statistics.get(fileName);
+				int fileSegments = stats.segments;
+				int fileTranslated = stats.translatedSegments;
+				int fileUntranslated = stats.untranslatedSegments;
+				int fileConfirmed = stats.confirmedSegments;
 				writeString(out, "<tr>");
 				writeString(out, "<td class='center'>" + count++ + "</td>");
 				writeString(out, "<td class='left'>" + XMLUtils.cleanText(fileName) + "</td>");
@@ -3572,20 +3633,11 @@ public class XliffStore {
 			it = files.iterator();
 			while (it.hasNext()) {
 				String fileName = it.next();
-				Set<String> set = filesMap.get(fileName);
-				Iterator<String> st = set.iterator();
-				int fileWords = 0;
-				int fileUntranslated = 0;
-				int fileTranslated = 0;
-				int fileConfirmed = 0;
-				while (st.hasNext()) {
-					String key = st.next();
-					JSONObject json = map.get(key);
-					fileWords += json.getInt("words");
-					fileTranslated += json.getInt("translated");
-					fileUntranslated += json.getInt("untranslated");
-					fileConfirmed += json.getInt("confirmed");
-				}
+				FileStatistics stats = statistics.get(fileName);
+				int fileWords = stats.words;
+				int fileUntranslated = stats.untranslatedWords;
+				int fileTranslated = stats.translatedWords;
+				int fileConfirmed = stats.confirmedWords;
 				writeString(out, "<tr>");
 				writeString(out, "<td class='center'>" + count++ + "</td>");
 				writeString(out, "<td class='left'>" + XMLUtils.cleanText(fileName) + "</td>");
@@ -3629,20 +3681,11 @@ public class XliffStore {
 			it = files.iterator();
 			while (it.hasNext()) {
 				String fileName = it.next();
-				Set<String> set = filesMap.get(fileName);
-				Iterator<String> st = set.iterator();
-				int fileChars = 0;
-				int fileUntranslated = 0;
-				int fileTranslated = 0;
-				int fileConfirmed = 0;
-				while (st.hasNext()) {
-					String key = st.next();
-					JSONObject json = map.get(key);
-					fileChars += json.getInt("chars");
-					fileTranslated += json.getInt("translatedChars");
-					fileUntranslated += json.getInt("untranslatedChars");
-					fileConfirmed += json.getInt("confirmedChars");
-				}
+				FileStatistics stats = statistics.get(fileName);
+				int fileChars = stats.chars;
+				int fileUntranslated = stats.untranslatedChars;
+				int fileTranslated = stats.translatedChars;
+				int fileConfirmed = stats.confirmedChars;
 				writeString(out, "<tr>");
 				writeString(out, "<td class='center'>" + count++ + "</td>");
 				writeString(out, "<td class='left'>" + XMLUtils.cleanText(fileName) + "</td>");
@@ -3668,6 +3711,8 @@ public class XliffStore {
 			writeString(out, "</tr>\n");
 			writeString(out, "</table>\n");
 
+			// the charts are built from the XLIFF file
+			updateXliff();
 			SvgStats svgStats = new SvgStats();
 			svgStats.analyse(xliffFile, catalog);
 
@@ -3693,49 +3738,100 @@ public class XliffStore {
 		return log.getAbsolutePath();
 	}
 
+	/**
+	 * Counts the segments of all files in one pass, with the best match of each
+	 * segment taken from the same query. Files with the same name are counted
+	 * together.
+	 */
+	private Map<String, FileStatistics> getFileStatistics() throws SQLException {
+		Map<String, String> names = new HashMap<>();
+		Map<String, FileStatistics> statistics = new TreeMap<>();
+		try (ResultSet rs = stmt.executeQuery("SELECT id, name FROM files")) {
+			while (rs.next()) {
+				String name = rs.getString(2);
+				names.put(rs.getString(1), name);
+				statistics.computeIfAbsent(name, k -> new FileStatistics());
+			}
+		}
+		String sql = """
+				SELECT s.file, s.sourceHash, s.words, s.chars, s.tags, s.targetText <> '', s.state = 'final', IFNULL(m.best, 0)
+				FROM segments s LEFT JOIN (SELECT file, unitId, segId, MAX(similarity) AS best FROM matches GROUP BY file, unitId, segId) m
+				ON m.file = s.file AND m.unitId = s.unitId AND m.segId = s.segId
+				WHERE s.type = 'S' ORDER BY s.file, s.unitId, s.segId""";
+		String lastFile = "";
+		FileStatistics stats = null;
+		Set<Long> currentFileSegments = new HashSet<>();
+		Set<Long> otherFileSegments = new HashSet<>();
+		try (ResultSet rs = stmt.executeQuery(sql)) {
+			while (rs.next()) {
+				String fileId = rs.getString(1);
+				long source = rs.getLong(2);
+				if (!lastFile.equals(fileId)) {
+					lastFile = fileId;
+					stats = statistics.get(names.get(fileId));
+					otherFileSegments.addAll(currentFileSegments);
+					currentFileSegments.clear();
+				}
+				int repetition = 0;
+				if (currentFileSegments.contains(source)) {
+					repetition = 1;
+				} else if (otherFileSegments.contains(source)) {
+					repetition = 2;
+				}
+				currentFileSegments.add(source);
+				stats.add(rs.getInt(3), rs.getInt(4), rs.getInt(5), rs.getBoolean(6), rs.getBoolean(7), rs.getInt(8),
+						repetition);
+			}
+		}
+		return statistics;
+	}
+
 	public void replaceText(JSONObject json)
 			throws SQLException, SAXException, IOException, ParserConfigurationException {
 		String searchText = json.getString("searchText");
 		String replaceText = json.getString("replaceText");
 		boolean isRegExp = json.getBoolean("regExp");
 		boolean caseSensitive = json.getBoolean("caseSensitive");
-		StringBuilder queryBuilder = new StringBuilder();
-		queryBuilder.append("SELECT file, unitId, segId, target FROM segments WHERE type='S' AND ");
+		boolean unicode = json.has("unicode") && json.getBoolean("unicode");
+		Pattern pattern = null;
 		if (isRegExp) {
 			try {
-				Pattern.compile(searchText);
+				pattern = RegexpFunction.compile(searchText, RegexpFunction.flags(caseSensitive, unicode));
 			} catch (PatternSyntaxException e) {
 				throw new IOException("Invalid regular expression");
 			}
-			queryBuilder.append(" targetText REGEXP '");
-			queryBuilder.append(searchText);
-			queryBuilder.append("' ");
-		} else {
-			queryBuilder.append(caseSensitive ? "targetText GLOB '*" : "targetText LIKE '%");
-			queryBuilder.append(escape(searchText));
-			queryBuilder.append(caseSensitive ? "*" : "%'");
 		}
-		queryBuilder.append(" AND translate='Y'");
-		try (ResultSet rs = stmt.executeQuery(queryBuilder.toString())) {
-			while (rs.next()) {
-				String file = rs.getString(1);
-				String unit = rs.getString(2);
-				String segment = rs.getString(3);
-				String tgt = rs.getString(4);
-
-				Element target = XliffUtils.buildElement(tgt);
-				target = replaceText(target, searchText, replaceText, isRegExp);
-				String pureTarget = XliffUtils.pureText(target);
-				updateTarget(file, unit, segment, target, pureTarget, false);
+		StringBuilder queryBuilder = new StringBuilder();
+		queryBuilder.append("SELECT file, unitId, segId, target FROM segments s WHERE type='S' AND translate='Y'");
+		List<String> params = new Vector<>();
+		appendTextFilter(queryBuilder, params, "targetText", searchText, caseSensitive, isRegExp, unicode);
+		List<String[]> found = new Vector<>();
+		try (PreparedStatement prep = conn.prepareStatement(queryBuilder.toString())) {
+			for (int i = 0; i < params.size(); i++) {
+				prep.setString(i + 1, params.get(i));
+			}
+			try (ResultSet rs = prep.executeQuery()) {
+				while (rs.next()) {
+					found.add(new String[] { rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4) });
+				}
 			}
 		}
-	}
+		// rows are updated after reading them, updates change the full text index
+		for (int i = 0; i < found.size(); i++) {
+			String[] row = found.get(i);
+			String file = row[0];
+			String unit = row[1];
+			String segment = row[2];
+			String tgt = row[3];
 
-	private String escape(String string) {
-		return string.replace("'", "''").replace("%", "\\%").replace("_", "\\_");
+			Element target = XliffUtils.buildElement(tgt);
+			target = replaceText(target, searchText, replaceText, pattern);
+			String pureTarget = XliffUtils.pureText(target);
+			updateTarget(file, unit, segment, target, pureTarget, false);
+		}
 	}
 
-	private Element replaceText(Element target, String searchText, String replaceText, boolean isRegExp) {
+	private Element replaceText(Element target, String searchText, String replaceText, Pattern pattern) {
 		List<XMLNode> newContent = new Vector<>();
 		List<XMLNode> content = target.getContent();
 		Iterator<XMLNode> it = content.iterator();
@@ -3743,13 +3839,14 @@ public class XliffStore {
 			XMLNode node = it.next();
 			if (node.getNodeType() == XMLNode.TEXT_NODE) {
 				String text = ((TextNode) node).getText();
-				text = isRegExp ? text.replaceAll(searchText, replaceText) : text.replace(searchText, replaceText);
+				text = pattern != null ? pattern.matcher(text).replaceAll(replaceText)
+						: text.replace(searchText, replaceText);
 				newContent.add(new TextNode(text));
 			}
 			if (node.getNodeType() == XMLNode.ELEMENT_NODE) {
 				Element e = (Element) node;
 				if ("mrk".equals(e.getName()) || "g".equals(e.getName())) {
-					e = replaceText(e, searchText, replaceText, isRegExp);
+					e = replaceText(e, searchText, replaceText, pattern);
 				}
 				newContent.add(e);
 			}
@@ -3879,43 +3976,42 @@ public class XliffStore {
 			}
 		}
 		Language sourceLanguage = LanguageUtils.getLanguage(srcLang);
-		List<String> words = sourceLanguage.isCJK() ? cjkWordList(sourceText, NGrams.TERM_SEPARATORS)
-				: NGrams.buildWordList(sourceText, NGrams.TERM_SEPARATORS);
+		List<String> words = Tokenizer.getWords(sourceText, sourceLanguage.isCJK());
 
 		List<Term> terms = new Vector<>();
 
 		String glossary = json.getString("glossary");
-		GlossariesHandler.openGlossary(glossary);
 		String glossaryName = GlossariesHandler.getGlossaryName(glossary);
-		ITmEngine engine = GlossariesHandler.getEngine(glossary);
-		Map<String, String> visited = new Hashtable<>();
-		for (int i = 0; i < words.size(); i++) {
-			StringBuilder termBuilder = new StringBuilder();
-			for (int length = 0; length < MAXTERMLENGTH; length++) {
-				if (i + length < words.size()) {
-					if (!sourceLanguage.isCJK()) {
-						termBuilder.append(' ');
-					}
-					termBuilder.append(words.get(i + length));
-					String term = termBuilder.toString().trim();
-					if (!visited.containsKey(term)) {
-						visited.put(term, "");
-						List<Element> res = engine.searchAll(term, srcLang, similarity, caseSensitiveTermSearches);
-						List<Term> array = parseMatches(res, glossaryName);
-						for (int h = 0; h < array.size(); h++) {
-							Term candidate = array.get(h);
-							if (!terms.contains(candidate)) {
-								terms.add(candidate);
-								result.put(candidate.toJSON());
-								saveTerm(json.getString("file"), json.getString("unit"), json.getString("segment"),
-										glossaryName, candidate.getSource(), candidate.getTarget());
+		try (Lease lease = GlossariesHandler.lease(glossary)) {
+			ITmEngine engine = lease.getEngine();
+			Map<String, String> visited = new Hashtable<>();
+			for (int i = 0; i < words.size(); i++) {
+				StringBuilder termBuilder = new StringBuilder();
+				for (int length = 0; length < MAXTERMLENGTH; length++) {
+					if (i + length < words.size()) {
+						if (!sourceLanguage.isCJK()) {
+							termBuilder.append(' ');
+						}
+						termBuilder.append(words.get(i + length));
+						String term = termBuilder.toString().trim();
+						if (!visited.containsKey(term)) {
+							visited.put(term, "");
+							List<Element> res = engine.searchAll(term, srcLang, similarity, caseSensitiveTermSearches);
+							List<Term> array = parseMatches(res, glossaryName);
+							for (int h = 0; h < array.size(); h++) {
+								Term candidate = array.get(h);
+								if (!terms.contains(candidate)) {
+									terms.add(candidate);
+									result.put(candidate.toJSON());
+									saveTerm(json.getString("file"), json.getString("unit"), json.getString("segment"),
+											glossaryName, candidate.getSource(), candidate.getTarget());
+								}
 							}
 						}
 					}
 				}
 			}
 		}
-		GlossariesHandler.closeGlossary(glossary);
 		return sortTerms(result);
 	}
 
@@ -3943,53 +4039,52 @@ public class XliffStore {
 		getPreferences();
 		Language sourceLanguage = LanguageUtils.getLanguage(srcLang);
 		int similarity = fuzzyTermSearches ? 70 : 100;
-		GlossariesHandler.openGlossary(glossary);
 		String glossaryName = GlossariesHandler.getGlossaryName(glossary);
-		ITmEngine engine = GlossariesHandler.getEngine(glossary);
 		int count = 0;
-		try (PreparedStatement segIterator = conn.prepareStatement(
-				"SELECT file, unitId, segId, sourceText FROM segments WHERE type='S' AND translate='Y' ")) {
-			try (ResultSet set = segIterator.executeQuery()) {
-				while (set.next()) {
-					String file = set.getString(1);
-					String unit = set.getString(2);
-					String segment = set.getString(3);
-					String sourceText = set.getString(4);
-					List<String> words = sourceLanguage.isCJK() ? cjkWordList(sourceText, NGrams.TERM_SEPARATORS)
-							: NGrams.buildWordList(sourceText, NGrams.TERM_SEPARATORS);
-					Map<String, String> visited = new Hashtable<>();
-					boolean added = false;
-					for (int i = 0; i < words.size(); i++) {
-						StringBuilder termBuilder = new StringBuilder();
-						for (int length = 0; length < MAXTERMLENGTH; length++) {
-							if (i + length < words.size()) {
-								if (!sourceLanguage.isCJK()) {
-									termBuilder.append(' ');
-								}
-								termBuilder.append(words.get(i + length));
-								String term = termBuilder.toString().trim();
-								if (!visited.containsKey(term)) {
-									visited.put(term, "");
-									List<Element> res = engine.searchAll(term, srcLang, similarity,
-											caseSensitiveTermSearches);
-									List<Term> array = parseMatches(res, glossaryName);
-									for (int h = 0; h < array.size(); h++) {
-										Term candidate = array.get(h);
-										saveTerm(file, unit, segment, glossaryName, candidate.getSource(),
-												candidate.getTarget());
-										added = true;
+		try (Lease lease = GlossariesHandler.lease(glossary)) {
+			ITmEngine engine = lease.getEngine();
+			try (PreparedStatement segIterator = conn.prepareStatement(
+					"SELECT file, unitId, segId, sourceText FROM segments WHERE type='S' AND translate='Y' ")) {
+				try (ResultSet set = segIterator.executeQuery()) {
+					while (set.next()) {
+						String file = set.getString(1);
+						String unit = set.getString(2);
+						String segment = set.getString(3);
+						String sourceText = set.getString(4);
+						List<String> words = Tokenizer.getWords(sourceText, sourceLanguage.isCJK());
+						Map<String, String> visited = new Hashtable<>();
+						boolean added = false;
+						for (int i = 0; i < words.size(); i++) {
+							StringBuilder termBuilder = new StringBuilder();
+							for (int length = 0; length < MAXTERMLENGTH; length++) {
+								if (i + length < words.size()) {
+									if (!sourceLanguage.isCJK()) {
+										termBuilder.append(' ');
+									}
+									termBuilder.append(words.get(i + length));
+									String term = termBuilder.toString().trim();
+									if (!visited.containsKey(term)) {
+										visited.put(term, "");
+										List<Element> res = engine.searchAll(term, srcLang, similarity,
+												caseSensitiveTermSearches);
+										List<Term> array = parseMatches(res, glossaryName);
+										for (int h = 0; h < array.size(); h++) {
+											Term candidate = array.get(h);
+											saveTerm(file, unit, segment, glossaryName, candidate.getSource(),
+													candidate.getTarget());
+											added = true;
+										}
 									}
 								}
 							}
 						}
-					}
-					if (added) {
-						count++;
+						if (added) {
+							count++;
+						}
 					}
 				}
 			}
 		}
-		GlossariesHandler.closeGlossary(glossary);
 		return count;
 	}
 
@@ -4066,26 +4161,17 @@ public class XliffStore {
 		conn.commit();
 	}
 
-	public void lockDuplicates() throws SQLException, SAXException, IOException, ParserConfigurationException {
-		String sql = "UPDATE segments SET translate='N' WHERE file=? AND unitId=? AND segId=?";
-		try (PreparedStatement lockStmt = conn.prepareStatement(sql)) {
-			Element currentSource = new Element("source");
-			sql = "SELECT file, unitId, segId, source FROM segments WHERE type='S' ORDER BY source, file, unitId, segId";
-			try (ResultSet rs = stmt.executeQuery(sql)) {
-				while (rs.next()) {
-					Element source = XliffUtils.buildElement(rs.getString(4));
-					if (source.equals(currentSource)) {
-						lockStmt.setString(1, rs.getString(1));
-						lockStmt.setString(2, rs.getString(2));
-						lockStmt.setString(3, rs.getString(3));
-						lockStmt.executeUpdate();
-						conn.commit();
-					} else {
-						currentSource = source;
-					}
-				}
-			}
-		}
+	public void lockDuplicates() throws SQLException {
+		// the first segment of each group of repetitions stays unlocked
+		String sql = """
+				UPDATE segments SET translate='N' WHERE rowid IN (
+				    SELECT rowid FROM (
+				        SELECT rowid, ROW_NUMBER() OVER (PARTITION BY sourceHash ORDER BY file, unitId, segId) AS n
+				        FROM segments WHERE type='S'
+				    ) WHERE n > 1
+				);""";
+		stmt.executeUpdate(sql);
+		conn.commit();
 	}
 
 	public JSONObject analyzeSpaces() throws SQLException, IOException, SAXException, ParserConfigurationException {
@@ -4440,34 +4526,6 @@ public class XliffStore {
 		return result;
 	}
 
-	public static List<String> cjkWordList(String string, String separator) {
-		List<String> result = new Vector<>();
-		StringBuilder word = new StringBuilder();
-		for (int i = 0; i < string.length(); i++) {
-			char c = string.charAt(i);
-			if (Character.isIdeographic(c)) {
-				if (word.length() != 0) {
-					result.add(word.toString());
-					word.setLength(0);
-				}
-				result.add("" + c);
-				continue;
-			}
-			if (separator.indexOf(c) != -1) {
-				if (word.length() != 0) {
-					result.add(word.toString());
-					word.setLength(0);
-				}
-			} else {
-				word.append(c);
-			}
-		}
-		if (word.length() != 0) {
-			result.add(word.toString());
-		}
-		return result;
-	}
-
 	public String exportHTML(String title)
 			throws SQLException, IOException, SAXException, ParserConfigurationException {
 		File output = new File(xliffFile + ".html");
@@ -4541,13 +4599,13 @@ public class XliffStore {
 					writeString(out,
 							"<td class=\"text " + space + " " + border + "\"" + sourceDir + ">"
 									+ XliffUtils.highlightSpaces(
-											removeSvg(addHtmlTags(source, "", false, false, tagsData, segPreserve)))
+											removeSvg(addHtmlTags(source, "", false, false, false, tagsData, segPreserve)))
 									+ "</td>\n");
 					writeString(out, "<td class=\"center " + border + "\"> " + box + "</td>\n");
 					writeString(out,
 							"<td class=\"text " + space + "\"" + targetDir + ">"
 									+ XliffUtils.highlightSpaces(
-											removeSvg(addHtmlTags(target, "", false, false, tagsData, segPreserve)))
+											removeSvg(addHtmlTags(target, "", false, false, false, tagsData, segPreserve)))
 									+ "</td>\n");
 					writeString(out, "</tr>\n");
 				}
@@ -4771,6 +4829,9 @@ public class XliffStore {
 			prep.setString(2, unit);
 			prep.execute();
 		}
+		if (segmentIndex != null) {
+			segmentIndex.removeUnit(file, unit);
+		}
 	}
 
 	private void deleteSegment(String file, String unit, String segment) throws SQLException {
@@ -4781,6 +4842,9 @@ public class XliffStore {
 			prep.setString(3, segment);
 			prep.execute();
 		}
+		if (segmentIndex != null) {
+			segmentIndex.remove(file, unit, segment);
+		}
 
 		sql = "DELETE FROM matches WHERE file=? AND unitId=? AND segId=?";
 		try (PreparedStatement prep = conn.prepareStatement(sql)) {
@@ -5046,10 +5110,10 @@ public class XliffStore {
 				System.out.println("[getSegment] 使用术语库: " + glossary + " 获取术语");
 				
 				// 直接通过ITmEngine获取术语
-				GlossariesHandler.openGlossary(glossary);
-				ITmEngine engine = GlossariesHandler.getEngine(glossary);
-				List<Element> allTermElements = engine.getAllTerms();
-				GlossariesHandler.closeGlossary(glossary);
+				List<Element> allTermElements;
+				try (Lease lease = GlossariesHandler.lease(glossary)) {
+					allTermElements = lease.getEngine().getAllTerms();
+				}
 				
 				System.out.println("[getSegment] 从术语库获取所有术语数量: " + allTermElements.size());
 				
@@ -5148,6 +5212,8 @@ public class XliffStore {
 		if (!srcLang.equals(json.getString("srcLang")) || !tgtLang.equals(json.getString("tgtLang"))) {
 			srcLang = json.getString("srcLang");
 			tgtLang = json.getString("tgtLang");
+			// rebuilt with the analyzer of the new source language
+			segmentIndex = null;
 			document = builder.build(xliffFile);
 			document.getRootElement().setAttribute("srcLang", srcLang);
 			document.getRootElement().setAttribute("trgLang", tgtLang);